@@ -18,6 +18,7 @@ package com.frdfsnlght.transporter;
 import com.frdfsnlght.transporter.api.GateException;
 import com.frdfsnlght.transporter.api.TransporterException;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
@@ -130,6 +131,63 @@ public class BlockListenerImpl implements Listener {
         }
     }
 
+    // area gates rescan the columns of their spawn caches these touch
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlaceMonitor(BlockPlaceEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreakMonitor(BlockBreakEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromToMonitor(BlockFromToEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurnMonitor(BlockBurnEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFadeMonitor(BlockFadeEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock());
+    }
+
+    // also covers spreading
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFormMonitor(BlockFormEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockGrowMonitor(BlockGrowEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeavesDecayMonitor(LeavesDecayEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonExtendMonitor(BlockPistonExtendEvent event) {
+        BlockFace direction = event.getDirection();
+        LocalAreaGateImpl.blockChanged(event.getBlock().getRelative(direction));
+        for (Block block : event.getBlocks())
+            LocalAreaGateImpl.blockChanged(block.getRelative(direction));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonRetractMonitor(BlockPistonRetractEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock().getRelative(event.getDirection()));
+        if (event.isSticky())
+            LocalAreaGateImpl.blockChanged(event.getRetractLocation().getBlock());
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onBlockRedstone(BlockRedstoneEvent event) {
         LocalGateImpl g = Gates.findGateForTrigger(event.getBlock().getLocation());
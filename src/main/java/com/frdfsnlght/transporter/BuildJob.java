@@ -0,0 +1,253 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+/**
+ * Places a set of blocks a few at a time instead of all at once.
+ * <p>
+ * Jobs are queued and run one after another, in order, each tick spending
+ * no more than a set amount of time placing blocks. The chunks a job
+ * touches are held loaded until it's done. Solid blocks are placed from
+ * the bottom up, then blocks that hang off other blocks, like torches and
+ * signs, then liquids, so nothing is placed before whatever holds it up.
+ * Blocks are cleared in the opposite order.
+ * </p>
+ * <p>
+ * Main thread only.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class BuildJob {
+
+    private static final long MAX_NANOS_PER_TICK = 5000000L;
+    // time is checked after this many blocks
+    private static final int BLOCKS_PER_CHECK = 16;
+    // chunks are held this long at most
+    private static final long CHUNK_HOLD = 120000;
+
+    private static final Set<Material> ATTACHED = EnumSet.of(
+            Material.TORCH, Material.REDSTONE_TORCH_OFF, Material.REDSTONE_TORCH_ON,
+            Material.SIGN_POST, Material.WALL_SIGN, Material.LADDER, Material.LEVER,
+            Material.STONE_BUTTON, Material.STONE_PLATE, Material.WOOD_PLATE,
+            Material.REDSTONE_WIRE, Material.DIODE_BLOCK_OFF, Material.DIODE_BLOCK_ON,
+            Material.RAILS, Material.POWERED_RAIL, Material.DETECTOR_RAIL,
+            Material.WOODEN_DOOR, Material.IRON_DOOR_BLOCK, Material.TRAP_DOOR, Material.BED_BLOCK,
+            Material.PORTAL, Material.FIRE, Material.VINE, Material.SNOW, Material.CACTUS,
+            Material.SUGAR_CANE_BLOCK, Material.YELLOW_FLOWER, Material.RED_ROSE, Material.SAPLING,
+            Material.LONG_GRASS, Material.DEAD_BUSH, Material.BROWN_MUSHROOM, Material.RED_MUSHROOM,
+            Material.CROPS, Material.WATER_LILY, Material.TRIPWIRE, Material.TRIPWIRE_HOOK);
+
+    private static final int SOLID = 0;
+    private static final int ATTACHABLE = 1;
+    private static final int LIQUID = 2;
+
+    private static final LinkedList<BuildJob> queue = new LinkedList<BuildJob>();
+    private static boolean scheduled = false;
+
+    private static final Runnable runner = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            runJobs(MAX_NANOS_PER_TICK);
+        }
+    };
+
+    // builds each buildable block, saving what was there first if undo isn't null
+    public static BuildJob build(List<GateBlock> blocks, List<SavedBlock> undo, Runnable onDone) {
+        BuildJob job = new BuildJob(onDone);
+        job.undo = undo;
+        job.gateBlocks = blocks;
+        return job.queue();
+    }
+
+    // restores the blocks, which are read when the job starts
+    public static BuildJob restore(List<SavedBlock> blocks, Runnable onDone) {
+        BuildJob job = new BuildJob(onDone);
+        job.savedBlocks = blocks;
+        return job.queue();
+    }
+
+    // sets the blocks to air
+    public static BuildJob clear(List<Location> locations, Runnable onDone) {
+        BuildJob job = new BuildJob(onDone);
+        job.clearLocations = locations;
+        return job.queue();
+    }
+
+    public static int getQueuedCount() {
+        return queue.size();
+    }
+
+    // a budget of Long.MAX_VALUE means no limit
+    private static void runJobs(long budget) {
+        long started = System.nanoTime();
+        while (! queue.isEmpty()) {
+            BuildJob job = queue.getFirst();
+            if (! job.place(started, budget)) break;
+            queue.removeFirst();
+            job.done();
+        }
+        schedule();
+    }
+
+    private static void schedule() {
+        if (scheduled || queue.isEmpty()) return;
+        scheduled = true;
+        if (Utils.fire(runner) == -1) {
+            // shutting down, so there are no more ticks
+            scheduled = false;
+            runJobs(Long.MAX_VALUE);
+        }
+    }
+
+    private final Runnable onDone;
+    private List<GateBlock> gateBlocks = null;
+    private List<SavedBlock> undo = null;
+    private List<SavedBlock> savedBlocks = null;
+    private List<Location> clearLocations = null;
+
+    private List<Placement> placements = null;
+    private int next = 0;
+    private ChunkWarmup.Hold hold = null;
+    private boolean done = false;
+
+    private BuildJob(Runnable onDone) {
+        this.onDone = onDone;
+    }
+
+    private BuildJob queue() {
+        queue.add(this);
+        schedule();
+        return this;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    // returns true when every block is placed
+    private boolean place(long started, long budget) {
+        if (placements == null) prepare();
+        int count = 0;
+        while (next < placements.size()) {
+            placements.get(next++).place(undo);
+            // elapsed time can't overflow the way a deadline can
+            if (((++count % BLOCKS_PER_CHECK) == 0) && ((System.nanoTime() - started) >= budget))
+                break;
+        }
+        return next >= placements.size();
+    }
+
+    private void prepare() {
+        placements = new ArrayList<Placement>();
+        if (gateBlocks != null) {
+            for (GateBlock gb : gateBlocks)
+                if (gb.getDetail().isBuildable())
+                    placements.add(new Placement(gb.getLocation(), gb.getDetail().getBuildBlock()));
+        } else if (savedBlocks != null) {
+            for (SavedBlock sb : savedBlocks)
+                placements.add(new Placement(sb.getLocation(), sb.getBlock()));
+        } else if (clearLocations != null) {
+            for (Location location : clearLocations)
+                placements.add(new Placement(location, null));
+        }
+        Collections.sort(placements, ORDER);
+
+        if (placements.isEmpty()) return;
+        World world = placements.get(0).location.getWorld();
+        Set<Long> keys = new HashSet<Long>();
+        for (Placement p : placements)
+            keys.add(GateMap.chunkKey(p.location.getBlockX() >> 4, p.location.getBlockZ() >> 4));
+        long[] chunkKeys = new long[keys.size()];
+        int i = 0;
+        for (long key : keys)
+            chunkKeys[i++] = key;
+        hold = ChunkWarmup.holdChunks(world, chunkKeys, CHUNK_HOLD);
+    }
+
+    private void done() {
+        done = true;
+        if (hold != null) hold.release();
+        if (onDone != null)
+            try {
+                onDone.run();
+            } catch (Throwable t) {
+                Utils.severe(t, "build job completion threw %s: %s", t.getClass().getName(), t.getMessage());
+            }
+    }
+
+    private static int getOrder(Material m) {
+        if ((m == Material.WATER) || (m == Material.STATIONARY_WATER) ||
+            (m == Material.LAVA) || (m == Material.STATIONARY_LAVA)) return LIQUID;
+        if ((m != null) && ATTACHED.contains(m)) return ATTACHABLE;
+        return SOLID;
+    }
+
+    // placed blocks go solid, attached, liquid and bottom up, cleared blocks
+    // go the other way around and come first
+    private static final Comparator<Placement> ORDER = new Comparator<Placement>() {
+        @Override
+        public int compare(Placement a, Placement b) {
+            if (a.clearing != b.clearing) return a.clearing ? -1 : 1;
+            if (a.order != b.order)
+                return a.clearing ? (b.order - a.order) : (a.order - b.order);
+            int ay = a.location.getBlockY(), by = b.location.getBlockY();
+            if (ay == by) return 0;
+            return ((ay < by) != a.clearing) ? -1 : 1;
+        }
+    };
+
+    private static final class Placement {
+
+        private final Location location;
+        private final BuildableBlock block;
+        private final boolean clearing;
+        private final int order;
+
+        private Placement(Location location, BuildableBlock block) {
+            this.location = location;
+            this.block = block;
+            Material m = (block == null) ? null : block.getMaterial();
+            clearing = (m == null) || (m == Material.AIR);
+            // a cleared block is ordered by what's being removed
+            order = getOrder(clearing ? location.getBlock().getType() : m);
+        }
+
+        private void place(List<SavedBlock> undo) {
+            if (undo != null)
+                undo.add(new SavedBlock(location));
+            if (block == null)
+                location.getBlock().setTypeIdAndData(0, (byte)0, false);
+            else
+                block.build(location);
+        }
+
+    }
+
+}
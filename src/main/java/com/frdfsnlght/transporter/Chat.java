@@ -15,7 +15,6 @@
  */
 package com.frdfsnlght.transporter;
 
-import com.frdfsnlght.transporter.api.GateException;
 import com.frdfsnlght.transporter.api.event.RemotePlayerChatEvent;
 import com.frdfsnlght.transporter.api.event.RemotePlayerPMEvent;
 import java.util.Collections;
@@ -27,7 +26,6 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.bukkit.ChatColor;
-import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.RegisteredServiceProvider;
@@ -86,36 +84,43 @@ public final class Chat {
         return b.toString();
     }
 
-    public static void send(Player player, String message, String format) {
+    // Can be called from the async chat thread. Only the routes last published
+    // by the main thread are used, never the servers or gates themselves.
+    // Gate routes need the player's location, which is only read on the main
+    // thread, so chat is routed there whenever there are any.
+    public static void send(final Player player, final String message, final String format) {
+        ChatRoutes routes = Utils.isMainThread() ? ChatRoutes.update() : ChatRoutes.get();
+        if ((routes == null) || ((routes.size() > 0) && (! Utils.isMainThread()))) {
+            Utils.fire(new Runnable() {
+                @Override
+                public void run() {
+                    send(player, message, format);
+                }
+            });
+            return;
+        }
+
         Utils.debug("player '%s' sent message '%s' with format '%s'", player.getName(), message, format);
 
-        Map<Server,Set<RemoteGateImpl>> servers = new HashMap<Server,Set<RemoteGateImpl>>();
+        Map<Server,Set<String>> servers = new HashMap<Server,Set<String>>();
 
         // add all servers that relay all chat
-        for (Server server : Servers.getAll())
-            if (server.canSendChat(message, format)) {
-                servers.put(server, null);
-                Utils.debug("can send chat message to server %s", server.getName());
+        for (ChatRoutes.ServerRoute route : routes.getServers())
+            if (route.canSend(message, format)) {
+                servers.put(route.getServer(), null);
+                Utils.debug("can send chat message to server %s", route.getServer().getName());
             }
 
-        Location loc = player.getLocation();
-        RemoteGateImpl destGate;
         Server destServer;
-        for (LocalGateImpl gate : Gates.getLocalGates()) {
-            if (gate.isOpen() && gate.canSendChat(message, format) && gate.isInChatSendProximity(loc)) {
-                try {
-                    GateImpl dg = gate.getDestinationGate();
-                    if (! (dg instanceof RemoteGateImpl)) continue;
-                    destGate = (RemoteGateImpl)dg;
-                    destServer = (Server)destGate.getRemoteServer();
-                    if (servers.containsKey(destServer)) {
-                        if (servers.get(destServer) == null) continue;
-                    } else
-                        servers.put(destServer, new HashSet<RemoteGateImpl>());
-                    servers.get(destServer).add(destGate);
-                    Utils.debug("can send chat message to server %s through gate %s", destServer.getName(), destGate.getFullName());
-                } catch (GateException e) {}
-            }
+        for (ChatRoutes.Route route : routes.find(player.getLocation())) {
+            if (! route.canSend(message, format)) continue;
+            destServer = route.getServer();
+            if (servers.containsKey(destServer)) {
+                if (servers.get(destServer) == null) continue;
+            } else
+                servers.put(destServer, new HashSet<String>());
+            servers.get(destServer).add(route.getDestinationLocalName());
+            Utils.debug("can send chat message to server %s through gate %s", destServer.getName(), route.getDestinationName());
         }
 
         if (servers.isEmpty()) {
@@ -139,7 +144,7 @@ public final class Chat {
                 if ((g == null) || (! (g instanceof LocalGateImpl))) continue;
                 LocalGateImpl gate = (LocalGateImpl)g;
                 if (! gate.canReceiveChat(message)) continue;
-                for (Player p : players) {
+                for (Player p : gate.getWorld().getPlayers()) {
                     if (gate.isInChatReceiveProximity(p.getLocation()))
                         playersToReceive.add(p);
                 }
@@ -198,6 +203,17 @@ public final class Chat {
             localPlayer.sendMessage(format);
     }
 
+    // true if the message and format pass the filters, a missing filter passes everything
+    public static boolean matchesFilters(String message, String format, Pattern messageFilter, Pattern formatFilter) {
+        if (message == null) return false;
+        if ((messageFilter != null) && (! messageFilter.matcher(message).find())) return false;
+        if (formatFilter != null) {
+            if (format == null) return false;
+            if (! formatFilter.matcher(format).find()) return false;
+        }
+        return true;
+    }
+
     public static String getPrefix(Player player) {
         if (vaultAvailable())
             return vaultPlugin.getPlayerPrefix(player);
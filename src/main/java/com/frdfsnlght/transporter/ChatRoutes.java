@@ -0,0 +1,251 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import com.frdfsnlght.transporter.api.GateException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.util.Vector;
+
+/**
+ * The servers and gates chat from local players can be sent through.
+ * <p>
+ * Only servers that get all chat and open gates that send chat to a gate on
+ * another server are kept. The gates are indexed by the chunks within their
+ * send distance, so finding the gates near a player only looks at one
+ * chunk's worth of gates. Each gate's destination is looked up when the
+ * routes are built.
+ * </p>
+ * <p>
+ * Routes are immutable once built. They're rebuilt on the main thread
+ * whenever a server or gate is added or removed, a gate is opened, closed or
+ * relinked, or chat options change, and the new routes replace the old ones
+ * for every thread at once. This is what lets chat be sent from the async
+ * chat thread without touching any server or gate state.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class ChatRoutes {
+
+    // gates that reach more chunks than this are checked for every message
+    private static final int MAX_INDEXED_CHUNKS = 1024;
+
+    private static volatile ChatRoutes current = null;
+    private static volatile boolean stale = true;
+    private static final AtomicBoolean updateScheduled = new AtomicBoolean(false);
+
+    private static final Runnable updater = new Runnable() {
+        @Override
+        public void run() {
+            updateScheduled.set(false);
+            update();
+        }
+    };
+
+    // can be called from any thread, the routes are rebuilt on the next tick
+    public static void invalidate() {
+        stale = true;
+        if (updateScheduled.compareAndSet(false, true))
+            Utils.fireQueued(updater);
+    }
+
+    // the routes last built, or null if there aren't any yet
+    public static ChatRoutes get() {
+        return current;
+    }
+
+    // main thread only, rebuilds the routes if anything changed
+    public static ChatRoutes update() {
+        if (stale || (current == null)) {
+            stale = false;
+            current = new ChatRoutes();
+        }
+        return current;
+    }
+
+    private final List<ServerRoute> servers = new ArrayList<ServerRoute>();
+    private final Map<World,WorldRoutes> worlds = new HashMap<World,WorldRoutes>();
+    private int size = 0;
+
+    private ChatRoutes() {
+        for (Server server : Servers.getAll())
+            if (server.getSendChat())
+                servers.add(new ServerRoute(server));
+        for (LocalGateImpl gate : Gates.getLocalGates()) {
+            if ((! gate.isOpen()) || (! gate.getSendChat())) continue;
+            GateImpl dest;
+            try {
+                dest = gate.getDestinationGate();
+            } catch (GateException e) {
+                continue;
+            }
+            if (! (dest instanceof RemoteGateImpl)) continue;
+            Route route = new Route(gate, (RemoteGateImpl)dest);
+            if ((route.center == null) && (route.distanceSquared >= 0)) continue;
+            WorldRoutes wr = worlds.get(gate.getWorld());
+            if (wr == null) {
+                wr = new WorldRoutes();
+                worlds.put(gate.getWorld(), wr);
+            }
+            wr.add(route);
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // servers that get all chat
+    public List<ServerRoute> getServers() {
+        return servers;
+    }
+
+    // the routes whose gates are close enough to the location
+    public List<Route> find(Location location) {
+        WorldRoutes wr = worlds.get(location.getWorld());
+        if (wr == null) return Collections.emptyList();
+        List<Route> routes = new ArrayList<Route>();
+        double x = location.getX(), y = location.getY(), z = location.getZ();
+        List<Route> chunk = wr.chunks.get(GateMap.chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4));
+        if (chunk != null)
+            for (Route route : chunk)
+                if (route.isInRange(x, y, z)) routes.add(route);
+        for (Route route : wr.wide)
+            if (route.isInRange(x, y, z)) routes.add(route);
+        return routes;
+    }
+
+    private static final class WorldRoutes {
+
+        private final LongMap<List<Route>> chunks = new LongMap<List<Route>>();
+        private final List<Route> wide = new ArrayList<Route>();
+
+        private void add(Route route) {
+            if (route.distanceSquared < 0) {
+                wide.add(route);
+                return;
+            }
+            double d = route.distance;
+            int minX = (int)Math.floor(route.center.getX() - d) >> 4;
+            int maxX = (int)Math.floor(route.center.getX() + d) >> 4;
+            int minZ = (int)Math.floor(route.center.getZ() - d) >> 4;
+            int maxZ = (int)Math.floor(route.center.getZ() + d) >> 4;
+            if (((long)(maxX - minX + 1) * (maxZ - minZ + 1)) > MAX_INDEXED_CHUNKS) {
+                wide.add(route);
+                return;
+            }
+            for (int cx = minX; cx <= maxX; cx++)
+                for (int cz = minZ; cz <= maxZ; cz++) {
+                    long key = GateMap.chunkKey(cx, cz);
+                    List<Route> chunk = chunks.get(key);
+                    if (chunk == null) {
+                        chunk = new ArrayList<Route>(2);
+                        chunks.put(key, chunk);
+                    }
+                    chunk.add(route);
+                }
+        }
+
+    }
+
+    public static final class ServerRoute {
+
+        private final Server server;
+        private final Pattern filter;
+        private final Pattern formatFilter;
+
+        private ServerRoute(Server server) {
+            this.server = server;
+            filter = server.getSendChatPattern();
+            formatFilter = server.getSendChatFormatPattern();
+        }
+
+        public Server getServer() {
+            return server;
+        }
+
+        public boolean canSend(String message, String format) {
+            return Chat.matchesFilters(message, format, filter, formatFilter);
+        }
+
+    }
+
+    public static final class Route {
+
+        private final String gateName;
+        private final String destinationName;
+        private final String destinationLocalName;
+        private final Server server;
+        private final Vector center;
+        private final double distance;
+        // negative means any distance
+        private final double distanceSquared;
+        private final Pattern filter;
+        private final Pattern formatFilter;
+
+        private Route(LocalGateImpl gate, RemoteGateImpl destination) {
+            gateName = gate.getFullName();
+            destinationName = destination.getFullName();
+            destinationLocalName = destination.getLocalName();
+            server = (Server)destination.getRemoteServer();
+            center = (gate.getCenter() == null) ? null : gate.getCenter().clone();
+            distance = gate.getSendChatDistance();
+            distanceSquared = (distance <= 0) ? -1 : distance * distance;
+            filter = gate.sendChatPattern;
+            formatFilter = gate.sendChatFormatPattern;
+        }
+
+        public String getGateName() {
+            return gateName;
+        }
+
+        public String getDestinationName() {
+            return destinationName;
+        }
+
+        // the destination's name on its own server
+        public String getDestinationLocalName() {
+            return destinationLocalName;
+        }
+
+        public Server getServer() {
+            return server;
+        }
+
+        public boolean canSend(String message, String format) {
+            return Chat.matchesFilters(message, format, filter, formatFilter);
+        }
+
+        private boolean isInRange(double x, double y, double z) {
+            if (distanceSquared < 0) return true;
+            double dx = x - center.getX();
+            double dy = y - center.getY();
+            double dz = z - center.getZ();
+            return ((dx * dx) + (dy * dy) + (dz * dz)) <= distanceSquared;
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+/**
+ * Loads the chunks around an arrival point before anyone arrives.
+ * <p>
+ * As soon as a destination is known, its spawn chunks are held and queued
+ * to be loaded a few per tick. Held chunks aren't allowed to unload, and
+ * every hold is released when the traveler arrives, when the wait is
+ * abandoned, or when the hold expires, whichever comes first. An open gate
+ * holds its destination's spawn chunks until it closes. Chunks held
+ * by more than one hold stay held until the last one is released.
+ * </p>
+ * <p>
+ * Main thread only.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class ChunkWarmup {
+
+    private static final int MAX_LOADS_PER_TICK = 2;
+
+    // chunk key -> number of holds, by world
+    private static final Map<World,LongMap<int[]>> held = new HashMap<World,LongMap<int[]>>();
+    private static final LinkedList<Hold> queue = new LinkedList<Hold>();
+    private static boolean loading = false;
+
+    private static long warmArrivals = 0;
+    private static long coldArrivals = 0;
+
+    private static final Runnable loader = new Runnable() {
+        @Override
+        public void run() {
+            loading = false;
+            load();
+        }
+    };
+
+    // holds the gate's spawn chunks for at most expiration millis, or until
+    // released if expiration isn't positive
+    public static Hold holdSpawn(LocalGateImpl gate, long expiration) {
+        return hold(gate.getWorld(), gate.getSpawnChunkKeys(), expiration);
+    }
+
+    // holds the location's chunk for at most expiration millis
+    public static Hold holdChunk(Location location, long expiration) {
+        if (location.getWorld() == null) return null;
+        return hold(location.getWorld(), new long[] { GateMap.chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4) }, expiration);
+    }
+
+    // holds the chunks for at most expiration millis
+    public static Hold holdChunks(World world, long[] keys, long expiration) {
+        return hold(world, keys, expiration);
+    }
+
+    private static Hold hold(World world, long[] keys, long expiration) {
+        if ((world == null) || (keys.length == 0)) return null;
+        LongMap<int[]> worldHeld = held.get(world);
+        if (worldHeld == null) {
+            worldHeld = new LongMap<int[]>();
+            held.put(world, worldHeld);
+        }
+        for (long key : keys) {
+            int[] count = worldHeld.get(key);
+            if (count == null)
+                worldHeld.put(key, new int[] { 1 });
+            else
+                count[0]++;
+        }
+        Hold hold = new Hold(world, keys, expiration);
+        queue.add(hold);
+        if (! loading) {
+            loading = true;
+            if (Utils.fire(loader) == -1)
+                loading = false;
+        }
+        return hold;
+    }
+
+    private static void load() {
+        int loads = 0;
+        while (! queue.isEmpty()) {
+            Hold hold = queue.getFirst();
+            while ((! hold.released) && (hold.next < hold.keys.length)) {
+                long key = hold.keys[hold.next++];
+                int cx = GateMap.chunkKeyX(key);
+                int cz = GateMap.chunkKeyZ(key);
+                if (hold.world.isChunkLoaded(cx, cz)) continue;
+                hold.world.loadChunk(cx, cz);
+                if (++loads >= MAX_LOADS_PER_TICK) break;
+            }
+            if (hold.released || (hold.next >= hold.keys.length))
+                queue.removeFirst();
+            if (loads >= MAX_LOADS_PER_TICK) break;
+        }
+        if ((! queue.isEmpty()) && (! loading)) {
+            loading = true;
+            if (Utils.fire(loader) == -1)
+                loading = false;
+        }
+    }
+
+    public static boolean isHeld(Chunk chunk) {
+        LongMap<int[]> worldHeld = held.get(chunk.getWorld());
+        if (worldHeld == null) return false;
+        return worldHeld.containsKey(GateMap.chunkKey(chunk.getX(), chunk.getZ()));
+    }
+
+    // counts whether the chunk at an arrival point was already loaded
+    public static void recordArrival(Location location) {
+        if (location.getWorld().isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4))
+            warmArrivals++;
+        else
+            coldArrivals++;
+    }
+
+    public static long getWarmArrivals() {
+        return warmArrivals;
+    }
+
+    public static long getColdArrivals() {
+        return coldArrivals;
+    }
+
+    public static void resetArrivalCounters() {
+        warmArrivals = coldArrivals = 0;
+    }
+
+    public static int getHeldChunkCount() {
+        int count = 0;
+        for (LongMap<int[]> worldHeld : held.values())
+            count += worldHeld.size();
+        return count;
+    }
+
+    public static final class Hold implements Runnable {
+
+        private final World world;
+        private final long[] keys;
+        private final TickTimer.Timeout timeout;
+        private int next = 0;
+        private boolean released = false;
+
+        private Hold(World world, long[] keys, long expiration) {
+            this.world = world;
+            this.keys = keys;
+            timeout = (expiration > 0) ? TickTimer.schedule(this, expiration) : null;
+        }
+
+        // expired
+        @Override
+        public void run() {
+            release();
+        }
+
+        public void release() {
+            if (released) return;
+            released = true;
+            if (timeout != null) timeout.cancel();
+            LongMap<int[]> worldHeld = held.get(world);
+            if (worldHeld == null) return;
+            for (long key : keys) {
+                int[] count = worldHeld.get(key);
+                if (count == null) continue;
+                if (--count[0] <= 0)
+                    worldHeld.remove(key);
+            }
+            if (worldHeld.isEmpty())
+                held.remove(world);
+        }
+
+    }
+
+}
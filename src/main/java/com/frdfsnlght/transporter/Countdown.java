@@ -15,6 +15,7 @@
  */
 package com.frdfsnlght.transporter;
 
+import com.frdfsnlght.transporter.api.GateException;
 import com.frdfsnlght.transporter.api.ReservationException;
 import java.text.NumberFormat;
 import java.util.HashMap;
@@ -30,7 +31,8 @@ public final class Countdown {
     private Player player;
     private LocalGateImpl gate;
     private int timeRemaining;
-    private int timer;
+    private TickTimer.Timeout timer = null;
+    private ChunkWarmup.Hold warmup = null;
 
     public Countdown(Player player, LocalGateImpl gate) {
         this.player = player;
@@ -48,7 +50,11 @@ public final class Countdown {
     public void start() {
         ReservationImpl.addCountdown(this);
         timeRemaining = gate.getCountdown();
-        timer = 0;
+        try {
+            GateImpl destination = gate.getDestinationGate();
+            if (destination instanceof LocalGateImpl)
+                warmup = ChunkWarmup.holdSpawn((LocalGateImpl)destination, timeRemaining + Config.getArrivalWindow());
+        } catch (GateException ge) {}
         String format = expand(gate.getCountdownFormat());
         if (format != null)
             player.sendMessage(format);
@@ -56,8 +62,11 @@ public final class Countdown {
     }
 
     public void cancel() {
-        if (timer != 0)
-            Utils.cancelTask(timer);
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        releaseWarmup();
         ReservationImpl.removeCountdown(this);
         String format = expand(gate.getCountdownCancelFormat());
         if (format != null)
@@ -65,6 +74,7 @@ public final class Countdown {
     }
 
     public void tick() {
+        timer = null;
         timeRemaining -= gate.getCountdownInterval();
         if (timeRemaining <= 0) {
             ReservationImpl.removeCountdown(this);
@@ -75,6 +85,7 @@ public final class Countdown {
             } catch (ReservationException re) {
                 ctx.warnLog(re.getMessage());
             }
+            releaseWarmup();
             return;
         }
 
@@ -85,7 +96,7 @@ public final class Countdown {
     }
 
     private void schedule() {
-        timer = Utils.fireDelayed(new Runnable() {
+        timer = TickTimer.schedule(new Runnable() {
             @Override
             public void run() {
                 tick();
@@ -93,6 +104,13 @@ public final class Countdown {
         }, gate.getCountdownInterval());
     }
 
+    private void releaseWarmup() {
+        if (warmup != null) {
+            warmup.release();
+            warmup = null;
+        }
+    }
+
     private String expand(String format) {
         Map<String,String> tokens = new HashMap<String,String>();
         tokens.put("time", NumberFormat.getNumberInstance().format((double)timeRemaining / 1000.0));
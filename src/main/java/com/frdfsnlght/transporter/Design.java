@@ -124,8 +124,7 @@ public class Design {
 
     private int sizeX, sizeY, sizeZ;    // calculated
 
-    @SuppressWarnings("unchecked")
-    public Design(File file) throws DesignException, BlockException {
+    private static TypeMap load(File file) throws DesignException {
         if (! file.exists())
             throw new DesignException("%s not found", file.getAbsolutePath());
         if (! file.isFile())
@@ -134,7 +133,15 @@ public class Design {
             throw new DesignException("unable to read %s", file.getAbsoluteFile());
         TypeMap conf = new TypeMap(file);
         conf.load();
+        return conf;
+    }
+
+    public Design(File file) throws DesignException, BlockException {
+        this(load(file));
+    }
 
+    @SuppressWarnings("unchecked")
+    public Design(TypeMap conf) throws DesignException, BlockException {
         name = conf.getString("name");
         attribution = conf.getString("attribution");
         enabled = conf.getBoolean("enabled", true);
@@ -706,7 +713,14 @@ public class Design {
 
     // Builds a gate at the specified location.
     // Location must include a yaw that indicates the gate's direction.
+    // The blocks are placed over the next few ticks.
     public DesignMatch build(Location location, String playerName) throws DesignException {
+        PendingBuild build = prepareBuild(location, playerName);
+        build.start(null);
+        return build.match;
+    }
+
+    private PendingBuild prepareBuild(Location location, String playerName) throws DesignException {
 
         // must be in a buildable world
         World world = location.getWorld();
@@ -771,15 +785,14 @@ public class Design {
         tDesign.reset();
 
         // build it!
+        List<GateBlock> gateBlocks = new ArrayList<GateBlock>();
+        while (tDesign.hasMoreBlocks())
+            gateBlocks.add(tDesign.nextBlock());
+        tDesign.reset();
+        // the undo fills up as the blocks are placed
         List<SavedBlock> savedBlocks = new ArrayList<SavedBlock>();
-        while (tDesign.hasMoreBlocks()) {
-            GateBlock gb = tDesign.nextBlock();
-            if (! gb.getDetail().isBuildable()) continue;
-            savedBlocks.add(new SavedBlock(gb.getLocation()));
-            gb.getDetail().getBuildBlock().build(gb.getLocation());
-        }
         Designs.setBuildUndo(playerName, savedBlocks);
-        return new DesignMatch(this, tDesign, world, direction);
+        return new PendingBuild(new DesignMatch(this, tDesign, world, direction), gateBlocks, savedBlocks);
     }
 
     // Attempts to match the blocks around the given location with this design.
@@ -869,11 +882,46 @@ public class Design {
         return gate;
     }
 
-    // Builds a gate at the specified location, creates it, and returns it.
+    // Builds a gate at the specified location, then creates and adds it once
+    // every block is placed and tells the callback on the main thread.
     // The location must contain a yaw that indicates the gate direction.
-    public LocalGateImpl create(Location location, String playerName, String gateName) throws TransporterException {
-        DesignMatch match = build(location, playerName);
-        return create(match, playerName, gateName);
+    public void create(Location location, final String playerName, final String gateName, final CreateCallback callback) throws DesignException {
+        final PendingBuild build = prepareBuild(location, playerName);
+        build.start(new Runnable() {
+            @Override
+            public void run() {
+                LocalGateImpl gate;
+                try {
+                    gate = create(build.match, playerName, gateName);
+                    Gates.add(gate, true);
+                } catch (GateException ge) {
+                    callback.onFailed(ge);
+                    return;
+                }
+                callback.onCreated(gate);
+            }
+        });
+    }
+
+    public interface CreateCallback {
+        void onCreated(LocalGateImpl gate);
+        void onFailed(GateException ge);
+    }
+
+    // the match is made before the job is queued because a job can run
+    // as soon as it's queued when the plugin is shutting down
+    private static final class PendingBuild {
+        private final DesignMatch match;
+        private final List<GateBlock> gateBlocks;
+        private final List<SavedBlock> savedBlocks;
+        private PendingBuild(DesignMatch match, List<GateBlock> gateBlocks, List<SavedBlock> savedBlocks) {
+            this.match = match;
+            this.gateBlocks = gateBlocks;
+            this.savedBlocks = savedBlocks;
+        }
+        private void start(Runnable onDone) {
+            BuildJob.build(gateBlocks, savedBlocks, onDone);
+        }
     }
 
     private Location translate(Location loc, int dx, int dy, int dz) {
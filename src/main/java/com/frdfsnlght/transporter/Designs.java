@@ -31,12 +31,22 @@ public final class Designs {
     private static final Map<String,Design> designs = new HashMap<String,Design>();
     private static Map<String,List<SavedBlock>> buildUndos = new HashMap<String,List<SavedBlock>>();
 
+    // designs don't need the main thread, so they're built as they're read
+    private static final TypeMapLoader.Builder<Design> builder = new TypeMapLoader.Builder<Design>() {
+        @Override
+        public Design build(TypeMap conf) throws Exception {
+            return new Design(conf);
+        }
+    };
+
     public static void load(Context ctx) {
         designs.clear();
         File designsFolder = new File(Global.plugin.getDataFolder(), "designs");
-        for (File designFile : Utils.listYAMLFiles(designsFolder)) {
+        for (TypeMapLoader.Result<Design> result : TypeMapLoader.load(designsFolder, builder)) {
+            File designFile = result.getFile();
             try {
-                Design design = new Design(designFile);
+                if (result.getError() != null) throw result.getError();
+                Design design = result.getObject();
                 if (! design.isEnabled()) continue;
                 try {
                     add(design);
@@ -88,8 +98,8 @@ public final class Designs {
     public static boolean undoBuild(String playerName) {
         List<SavedBlock> blocks = buildUndos.remove(playerName);
         if (blocks == null) return false;
-        for (SavedBlock block : blocks)
-            block.restore();
+        // runs after the build, if that's still going
+        BuildJob.restore(blocks, null);
         return true;
     }
 
@@ -129,4 +129,18 @@ public final class Economy {
         return false;
     }
 
+    public static boolean refundFunds(String accountName, double amount) throws EconomyException {
+        if (accountName == null) return false;
+        if (amount <= 0) return false;
+
+        if (vaultAvailable()) {
+            EconomyResponse r = vaultPlugin.depositPlayer(accountName, amount);
+            if (r.transactionSuccess()) return true;
+            throw new EconomyException("economy error: %s", r.errorMessage);
+        }
+
+        // default
+        return false;
+    }
+
 }
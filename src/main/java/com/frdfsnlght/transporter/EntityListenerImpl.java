@@ -18,7 +18,10 @@ package com.frdfsnlght.transporter;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.block.Block;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
 import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
 
 /**
  *
@@ -32,4 +35,16 @@ public final class EntityListenerImpl implements Listener {
             event.setCancelled(true);
     }
 
+    // area gates rescan the columns of their spawn caches these touch
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplodeMonitor(EntityExplodeEvent event) {
+        for (Block block : event.blockList())
+            LocalAreaGateImpl.blockChanged(block);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlockMonitor(EntityChangeBlockEvent event) {
+        LocalAreaGateImpl.blockChanged(event.getBlock());
+    }
+
 }
@@ -15,44 +15,87 @@
  */
 package com.frdfsnlght.transporter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import org.bukkit.Location;
 import org.bukkit.World;
 
 /**
+ * Finds the gate whose volume contains a block.
+ * <p>
+ * Each world's volumes are indexed by the chunks they overlap, so a lookup
+ * only looks at the volumes in one chunk, and adding or removing a gate only
+ * touches the chunks that gate is in. Very large volumes are kept aside and
+ * checked on every lookup.
+ * </p>
  *
  * @author frdfsnlght <frdfsnlght@gmail.com>
  */
 public final class GateMap {
 
+    // volumes without points that cover more chunks than this are checked
+    // for every lookup in their world instead of being indexed
+    private static final int MAX_INDEXED_CHUNKS = 256;
+
+    // packs block coordinates into a long, x and z in 26 bits and y in 12
+    public static long blockKey(int x, int y, int z) {
+        return ((long)(x & 0x3ffffff) << 38) | ((long)(z & 0x3ffffff) << 12) | (long)(y & 0xfff);
+    }
+
+    public static int blockKeyX(long key) {
+        return (int)(key >> 38);
+    }
+
+    public static int blockKeyY(long key) {
+        return (int)((key << 52) >> 52);
+    }
+
+    public static int blockKeyZ(long key) {
+        return (int)((key << 26) >> 38);
+    }
+
+    // packs chunk coordinates into a long
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long)chunkX << 32) | ((long)chunkZ & 0xffffffffL);
+    }
+
+    public static int chunkKeyX(long key) {
+        return (int)(key >> 32);
+    }
+
+    public static int chunkKeyZ(long key) {
+        return (int)key;
+    }
+
     private Map<World,WorldMap> worlds = new HashMap<World,WorldMap>();
 
     public GateMap() {}
 
     public void put(Volume volume) {
         World world = volume.getWorld();
-        if (! worlds.containsKey(world))
-            worlds.put(world, new WorldMap());
-        worlds.get(world).add(volume);
+        WorldMap wmap = worlds.get(world);
+        if (wmap == null) {
+            wmap = new WorldMap();
+            worlds.put(world, wmap);
+        }
+        wmap.add(volume);
     }
 
     public LocalGateImpl getGate(Location location) {
-        World world = location.getWorld();
-        WorldMap wmap = worlds.get(world);
+        WorldMap wmap = worlds.get(location.getWorld());
         if (wmap == null) return null;
-        VolumeNode node = wmap.getNode(location);
-        if (node == null) return null;
-        return node.getGate(location);
+        return wmap.getGate(location.getBlockX(), location.getBlockY(), location.getBlockZ());
     }
 
-    public void removeGate(LocalGateImpl gate) {
-        World world = gate.getWorld();
-        if (worlds.containsKey(world))
-            worlds.get(world).removeGate(gate);
+    // returns the removed volumes, or null if the gate had none
+    public List<Volume> removeGate(LocalGateImpl gate) {
+        WorldMap wmap = worlds.get(gate.getWorld());
+        if (wmap == null) return null;
+        return wmap.removeGate(gate);
     }
 
     public void removeWorld(World world) {
@@ -66,10 +109,10 @@ public final class GateMap {
         return count;
     }
 
-    public int nodeCount() {
+    public int chunkCount() {
         int count = 0;
         for (WorldMap wmap : worlds.values())
-            count+= wmap.nodeCount();
+            count+= wmap.chunkCount();
         return count;
     }
 
@@ -115,6 +158,9 @@ public final class GateMap {
         public Location toLocation(World world) {
             return new Location(world, x, y, z);
         }
+        public long toKey() {
+            return blockKey(x, y, z);
+        }
         @Override
         public boolean equals(Object o) {
             if (! (o instanceof Point)) return false;
@@ -123,7 +169,7 @@ public final class GateMap {
         }
         @Override
         public int hashCode() {
-            return x + y + x;
+            return (((x * 31) + y) * 31) + z;
         }
         @Override
         public String toString() {
@@ -195,55 +241,90 @@ public final class GateMap {
         }
     }
 
-    private class WorldMap {
+    private final class WorldMap {
 
-        private Set<Volume> volumes = new HashSet<Volume>();
-        private VolumeNode root = null;
+        // volumes by gate, in the order they were added
+        private Map<LocalGateImpl,List<Volume>> gates = new LinkedHashMap<LocalGateImpl,List<Volume>>();
+        private LongMap<List<Volume>> chunks = new LongMap<List<Volume>>();
+        private List<Volume> wide = new ArrayList<Volume>();
+        private int size = 0;
 
         void add(Volume volume) {
-            volumes.add(volume);
-            recalculate();
+            List<Volume> vols = gates.get(volume.gate);
+            if (vols == null) {
+                vols = new ArrayList<Volume>(1);
+                gates.put(volume.gate, vols);
+            }
+            vols.add(volume);
+            size++;
+            long[] keys = volume.getChunkKeys();
+            if (keys == null) {
+                wide.add(volume);
+                return;
+            }
+            for (long key : keys) {
+                List<Volume> chunk = chunks.get(key);
+                if (chunk == null) {
+                    chunk = new ArrayList<Volume>(2);
+                    chunks.put(key, chunk);
+                }
+                chunk.add(volume);
+            }
         }
 
-        VolumeNode getNode(Location loc) {
-            if (root == null) return null;
-            return root.getNode(loc);
+        LocalGateImpl getGate(int x, int y, int z) {
+            List<Volume> chunk = chunks.get(chunkKey(x >> 4, z >> 4));
+            if (chunk != null)
+                for (int i = 0; i < chunk.size(); i++) {
+                    Volume vol = chunk.get(i);
+                    if (vol.contains(x, y, z)) return vol.gate;
+                }
+            for (int i = 0; i < wide.size(); i++) {
+                Volume vol = wide.get(i);
+                if (vol.contains(x, y, z)) return vol.gate;
+            }
+            return null;
         }
 
-        void removeGate(LocalGateImpl gate) {
-            for (Iterator<Volume> i = volumes.iterator(); i.hasNext(); )
-                if (i.next().getGate() == gate)
-                    i.remove();
-            recalculate();
+        List<Volume> removeGate(LocalGateImpl gate) {
+            List<Volume> vols = gates.remove(gate);
+            if (vols == null) return null;
+            for (Volume volume : vols) {
+                size--;
+                long[] keys = volume.getChunkKeys();
+                if (keys == null) {
+                    wide.remove(volume);
+                    continue;
+                }
+                for (long key : keys) {
+                    List<Volume> chunk = chunks.get(key);
+                    if (chunk == null) continue;
+                    chunk.remove(volume);
+                    if (chunk.isEmpty()) chunks.remove(key);
+                }
+            }
+            return vols;
         }
 
         int size() {
-            return volumes.size();
+            return size;
         }
 
-        int nodeCount() {
-            if (root == null) return 0;
-            return root.nodeCount();
-        }
-
-        private void recalculate() {
-//            Utils.debug("!!!! recalculate worldmap !!!!");
-//            Utils.debug(toString());
-
-            if (root != null) root.destroy();
-            if ((volumes == null) || volumes.isEmpty()) return;
-            root = new VolumeNode(null, volumes);
+        int chunkCount() {
+            return chunks.size();
         }
 
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
             sb.append("WorldMap[");
-            sb.append(volumes.size()).append(" volumes:\n");
-            for (Volume volume : volumes) {
-                sb.append(volume.toString());
-                sb.append(",\n");
-            }
+            sb.append(size).append(" volumes in ");
+            sb.append(chunks.size()).append(" chunks:\n");
+            for (List<Volume> vols : gates.values())
+                for (Volume volume : vols) {
+                    sb.append(volume.toString());
+                    sb.append(",\n");
+                }
             sb.append("]");
             return sb.toString();
         }
@@ -253,7 +334,10 @@ public final class GateMap {
     public static final class Volume {
         protected LocalGateImpl gate;
         protected Bounds bounds = new Bounds();
-        protected Set<Point> points = null;
+        // packed block keys, sorted before they're searched
+        protected long[] points = null;
+        protected int pointCount = 0;
+        private boolean sorted = true;
         public Volume(LocalGateImpl gate) {
             this.gate = gate;
         }
@@ -262,13 +346,15 @@ public final class GateMap {
         public LocalGateImpl getGate() { return gate; }
         public void addPoint(Point p) {
             if (points == null) {
-                points = new HashSet<Point>();
-                points.add(p);
+                points = new long[16];
                 bounds.set(p);
             } else {
-                points.add(p);
+                if (pointCount == points.length)
+                    points = Arrays.copyOf(points, pointCount * 2);
                 bounds.expand(p);
             }
+            points[pointCount++] = p.toKey();
+            sorted = false;
         }
         public void setBounds(Bounds b) {
             bounds.min = b.min;
@@ -279,71 +365,37 @@ public final class GateMap {
             bounds.expand(p2);
         }
         public boolean contains(Location loc) {
-            Point lp = new Point(loc);
-            if (points == null) {
-                if (bounds.contains(loc)) {
-                    return true;
-                }
-                return false;
-            }
-            for (Point p : points)
-                if (p.equals(lp)) {
-                    return true;
-                }
-            return false;
-        }
-        public Volume[] split(Point center) {
-            Volume[] vols = new Volume[4];
-            // check if we're completely in a quad
-            if (bounds.max.x < center.x) {
-                if (bounds.max.z < center.z) {
-                    vols[0] = this;
-                    return vols;
-                }
-                if (bounds.min.z >= center.z) {
-                    vols[1] = this;
-                    return vols;
-                }
-            } else if (bounds.min.x >= center.x) {
-                if (bounds.max.z < center.z) {
-                    vols[2] = this;
-                    return vols;
-                }
-                if (bounds.min.z >= center.z) {
-                    vols[3] = this;
-                    return vols;
-                }
+            return contains(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+        }
+        public boolean contains(int x, int y, int z) {
+            if ((x < bounds.min.x) || (x > bounds.max.x) ||
+                (z < bounds.min.z) || (z > bounds.max.z) ||
+                (y < bounds.min.y) || (y > bounds.max.y)) return false;
+            if (points == null) return true;
+            if (! sorted) {
+                Arrays.sort(points, 0, pointCount);
+                sorted = true;
             }
-
+            return Arrays.binarySearch(points, 0, pointCount, blockKey(x, y, z)) >= 0;
+        }
+        // the keys of the chunks this volume overlaps, or null if it's too big to index
+        long[] getChunkKeys() {
             if (points == null) {
-                for (int quad = 0; quad < 4; quad++) {
-                    Bounds b = bounds.trim(center, quad);
-                    if (b == null) continue;
-                    vols[quad] = new Volume(gate);
-                    vols[quad].setBounds(b);
-                }
-
-            } else {
-                for (Point p : points)
-                    if (p.x < center.x) {
-                        if (p.z < center.z) {
-                            if (vols[0] == null) vols[0] = new Volume(gate);
-                            vols[0].addPoint(p);
-                        } else {
-                            if (vols[1] == null) vols[1] = new Volume(gate);
-                            vols[1].addPoint(p);
-                        }
-                    } else {
-                        if (p.z < center.z) {
-                            if (vols[2] == null) vols[2] = new Volume(gate);
-                            vols[2].addPoint(p);
-                        } else {
-                            if (vols[3] == null) vols[3] = new Volume(gate);
-                            vols[3].addPoint(p);
-                        }
-                    }
+                int minX = bounds.min.x >> 4, maxX = bounds.max.x >> 4;
+                int minZ = bounds.min.z >> 4, maxZ = bounds.max.z >> 4;
+                if (((long)(maxX - minX + 1) * (maxZ - minZ + 1)) > MAX_INDEXED_CHUNKS)
+                    return null;
+                long[] keys = new long[(maxX - minX + 1) * (maxZ - minZ + 1)];
+                int n = 0;
+                for (int cx = minX; cx <= maxX; cx++)
+                    for (int cz = minZ; cz <= maxZ; cz++)
+                        keys[n++] = chunkKey(cx, cz);
+                return keys;
             }
-            return vols;
+            LongMap<Boolean> keys = new LongMap<Boolean>();
+            for (int i = 0; i < pointCount; i++)
+                keys.put(chunkKey(blockKeyX(points[i]) >> 4, blockKeyZ(points[i]) >> 4), Boolean.TRUE);
+            return keys.keys();
         }
         @Override
         public String toString() {
@@ -358,108 +410,11 @@ public final class GateMap {
             sb.append(bounds);
             if (points != null) {
                 sb.append(",p=");
-                sb.append(points.size());
+                sb.append(pointCount);
             }
             sb.append("]");
             return sb.toString();
         }
     }
 
-    private final class VolumeNode {
-        private static final int LEAF_SIZE = 16;
-        VolumeNode parent = null;
-        Point center;
-        Bounds bounds;
-        VolumeNode[] children = null;
-        Set<Volume> volumes = null;
-        VolumeNode(VolumeNode parent, Set<Volume> volumes) {
-            this.parent = parent;
-            center = new Point();
-
-            // find the center
-            for (Volume vol : volumes) {
-                center.x += vol.bounds.min.x + vol.bounds.max.x;
-                center.y += vol.bounds.min.y + vol.bounds.max.y;
-                center.z += vol.bounds.min.z + vol.bounds.max.z;
-            }
-            center.x = center.x / (volumes.size() * 2);
-            center.y = center.y / (volumes.size() * 2);
-            center.z = center.z / (volumes.size() * 2);
-
-            bounds = new Bounds();
-            bounds.set(center);
-            Set<Volume> vols0 = new HashSet<Volume>();
-            Set<Volume> vols1 = new HashSet<Volume>();
-            Set<Volume> vols2 = new HashSet<Volume>();
-            Set<Volume> vols3 = new HashSet<Volume>();
-
-            // find bounds and create quads
-            for (Volume vol : volumes) {
-                bounds.expand(vol.bounds);
-                Volume[] vols = vol.split(center);
-                if (vols[0] != null) vols0.add(vols[0]);
-                if (vols[1] != null) vols1.add(vols[1]);
-                if (vols[2] != null) vols2.add(vols[2]);
-                if (vols[3] != null) vols3.add(vols[3]);
-            }
-
-            // limit tree growth
-            if ((bounds.sizeX() <= LEAF_SIZE) &&
-                (bounds.sizeZ() <= LEAF_SIZE)) {
-                this.volumes = volumes;
-                return;
-            }
-
-            children = new VolumeNode[4];
-            if (! vols0.isEmpty()) children[0] = new VolumeNode(this, vols0);
-            if (! vols1.isEmpty()) children[1] = new VolumeNode(this, vols1);
-            if (! vols2.isEmpty()) children[2] = new VolumeNode(this, vols2);
-            if (! vols3.isEmpty()) children[3] = new VolumeNode(this, vols3);
-
-        }
-        void destroy() {
-            volumes = null;
-            parent = null;
-            if (children != null) {
-                for (int i = 0; i < 4; i++)
-                    if (children[i] != null) children[i].destroy();
-                children = null;
-            }
-        }
-        int nodeCount() {
-            if (children == null) return 1;
-            int count = 1;
-            for (VolumeNode child : children)
-                if (child != null) count += child.nodeCount();
-            return count;
-        }
-        LocalGateImpl getGate(Location loc) {
-            if ((children != null) || (volumes == null)) return null;
-            for (Volume vol : volumes)
-                if (vol.contains(loc)) return vol.gate;
-            return null;
-        }
-        VolumeNode getNode(Location loc) {
-            if (! bounds.contains(loc)) return null;
-            if (children == null) return this;
-            if (loc.getBlockX() < center.x) {
-                if (loc.getBlockZ() < center.z) {
-                    if (children[0] == null) return null;
-                    return children[0].getNode(loc);
-                } else {
-                    if (children[1] == null) return null;
-                    return children[1].getNode(loc);
-                }
-            } else {
-                if (loc.getBlockZ() < center.z) {
-                    if (children[2] == null) return null;
-                    return children[2].getNode(loc);
-                } else {
-                    if (children[3] == null) return null;
-                    return children[3].getNode(loc);
-                }
-            }
-        }
-    }
-
 }
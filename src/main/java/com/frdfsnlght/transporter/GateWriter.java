@@ -0,0 +1,164 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes gate files on a thread of its own.
+ * <p>
+ * A gate is saved by building a map of its settings on the main thread,
+ * which shares nothing with the gate, and handing it over. If the same file
+ * is saved again before the last save was written, only the newest map is
+ * written. Each file is written to a temporary file next to it, synced to
+ * disk, then renamed over the old file, so a crash can't leave a gate file
+ * half written. Deleting a file is queued the same way, so a save that
+ * hasn't been written yet can't bring it back.
+ * </p>
+ * <p>
+ * The thread is started when there's something to write and stops when
+ * there isn't.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class GateWriter {
+
+    private static final String THREAD_NAME = "Transporter Gate Writer";
+
+    // file -> newest map to write there, or null to delete it
+    private static final Map<File,TypeMap> pending = new LinkedHashMap<File,TypeMap>();
+    private static boolean running = false;
+
+    private static long writes = 0;
+    private static long coalesced = 0;
+
+    private static final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                File file;
+                TypeMap conf;
+                synchronized (GateWriter.class) {
+                    if (pending.isEmpty()) {
+                        running = false;
+                        GateWriter.class.notifyAll();
+                        return;
+                    }
+                    Iterator<Map.Entry<File,TypeMap>> i = pending.entrySet().iterator();
+                    Map.Entry<File,TypeMap> e = i.next();
+                    i.remove();
+                    file = e.getKey();
+                    conf = e.getValue();
+                }
+                try {
+                    if (conf == null)
+                        deleteFile(file);
+                    else
+                        writeFile(file, conf);
+                } catch (Throwable t) {
+                    Utils.severe(t, "unable to write gate file %s:", file.getAbsolutePath());
+                }
+            }
+        }
+    };
+
+    // can be called from any thread
+    public static void write(File file, TypeMap conf) {
+        queue(file, conf);
+    }
+
+    // can be called from any thread
+    public static void delete(File file) {
+        queue(file, null);
+    }
+
+    private static synchronized void queue(File file, TypeMap conf) {
+        if (pending.containsKey(file)) coalesced++;
+        pending.put(file, conf);
+        if (running) return;
+        running = true;
+        Thread thread = new Thread(writer, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // waits for everything queued so far to be written
+    public static synchronized void flush() {
+        while (running)
+            try {
+                GateWriter.class.wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+    }
+
+    public static synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public static synchronized long getWrites() {
+        return writes;
+    }
+
+    public static synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    private static void writeFile(File file, TypeMap conf) throws IOException {
+        File parent = file.getParentFile();
+        if (! parent.exists())
+            parent.mkdirs();
+        File temp = new File(parent, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            Writer w = new OutputStreamWriter(out, "UTF-8");
+            conf.dump(w);
+            w.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (! temp.renameTo(file)) {
+            // some platforms won't rename over a file that exists
+            file.delete();
+            if (! temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("unable to rename " + temp.getAbsolutePath());
+            }
+        }
+        synchronized (GateWriter.class) {
+            writes++;
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (! file.exists()) return;
+        if (! file.delete())
+            Utils.warning("unable to delete gate file %s", file.getAbsolutePath());
+        else
+            Utils.info("deleted gate file %s", file.getAbsolutePath());
+    }
+
+}
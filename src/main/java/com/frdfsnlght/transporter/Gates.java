@@ -21,11 +21,17 @@ import com.frdfsnlght.transporter.api.TransporterException;
 import com.frdfsnlght.transporter.api.event.LocalGateCreateEvent;
 import com.frdfsnlght.transporter.api.event.LocalGateDestroyEvent;
 import java.io.File;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
@@ -52,8 +58,29 @@ public final class Gates {
     // Gate triggers for local gates
     public static final GateMap triggerMap = new GateMap();
 
+    // Chunks with any kind of gate volume in them, and how many, by world.
+    // Most lookups are in chunks without a gate and stop here.
+    private static final Map<World,LongMap<int[]>> gateChunks = new HashMap<World,LongMap<int[]>>();
+    // volumes too big to index by chunk, by world
+    private static final Map<World,int[]> wideGateCounts = new HashMap<World,int[]>();
+    private static long chunkCacheHits = 0;
+    private static long chunkCacheMisses = 0;
+
     // Indexed by full name
-    private static final Map<String,GateImpl> gates = new HashMap<String,GateImpl>();
+    private static final Map<String,GateImpl> gates = new ConcurrentHashMap<String,GateImpl>();
+
+    // Bumped after every change to the gates above. The registry is rebuilt
+    // the first time it's asked for after a change, not on every change, so
+    // loading a world's gates one at a time doesn't build it over and over.
+    private static volatile int version = 0;
+    private static volatile Registry registry = null;
+
+    // Local gates that link to, or have an incoming connection from, a gate,
+    // by the gate's full name. Only these gates care when that gate is added,
+    // removed, destroyed or renamed.
+    private static final Map<String,Set<LocalGateImpl>> linkedFrom = new HashMap<String,Set<LocalGateImpl>>();
+    // The full names each local gate is listed under above
+    private static final Map<LocalGateImpl,Set<String>> linkedTo = new HashMap<LocalGateImpl,Set<String>>();
 
     private static Map<Integer,LocalGateImpl> selectedGates = new HashMap<Integer,LocalGateImpl>();
 
@@ -63,6 +90,13 @@ public final class Gates {
             loadGatesForWorld(ctx, world);
     }
 
+    private static final TypeMapLoader.Builder<LocalGateImpl.Prepared> gateBuilder = new TypeMapLoader.Builder<LocalGateImpl.Prepared>() {
+        @Override
+        public LocalGateImpl.Prepared build(TypeMap conf) throws Exception {
+            return LocalGateImpl.prepare(conf);
+        }
+    };
+
     public static int loadGatesForWorld(Context ctx, World world) {
         File worldFolder = Worlds.worldPluginFolder(world);
         File gatesFolder = new File(worldFolder, "gates");
@@ -70,10 +104,15 @@ public final class Gates {
             Utils.info("no gates found for world '%s'", world.getName());
             return 0;
         }
+        // don't read a file that's still being written
+        GateWriter.flush();
         int loadedCount = 0;
-        for (File gateFile : Utils.listYAMLFiles(gatesFolder)) {
+        // the files are read and decoded in parallel, the gates get their world here
+        for (TypeMapLoader.Result<LocalGateImpl.Prepared> result : TypeMapLoader.load(gatesFolder, gateBuilder)) {
+            File gateFile = result.getFile();
             try {
-                LocalGateImpl gate = LocalGateImpl.load(world, gateFile);
+                if (result.getError() != null) throw result.getError();
+                LocalGateImpl gate = LocalGateImpl.load(world, result.getObject());
                 if (gates.containsKey(gate.getFullName())) continue;
                 try {
                     add(gate, false);
@@ -91,16 +130,23 @@ public final class Gates {
         return loadedCount;
     }
 
+    // saves the gates that changed
     public static void save(Context ctx) {
+        save(ctx, false);
+    }
+
+    public static void save(Context ctx, boolean force) {
         if (gates.isEmpty()) return;
-        Set<LocalGateImpl> lgates = getLocalGates();
-        for (LocalGateImpl gate : lgates) {
+        int saved = 0;
+        for (LocalGateImpl gate : getLocalGates()) {
+            if ((! force) && (! gate.isDirty())) continue;
             gate.save(true);
+            saved++;
             if ((ctx != null) && Config.getShowGatesSavedMessage())
                 ctx.sendLog("saved '%s'", gate.getLocalName());
         }
         if ((ctx != null) && (! Config.getShowGatesSavedMessage()))
-            ctx.sendLog("saved %s gates", lgates.size());
+            ctx.sendLog("saved %s gates", saved);
     }
 
     public static GateImpl find(Context ctx, String name) {
@@ -114,16 +160,9 @@ public final class Gates {
     }
 
     public static GateImpl find(String name) {
-        if (gates.containsKey(name)) return gates.get(name);
-        String lname = name.toLowerCase();
-        GateImpl gate = null;
-        for (String key : gates.keySet()) {
-            if (key.toLowerCase().startsWith(lname)) {
-                if (gate == null) gate = gates.get(key);
-                else return null;
-            }
-        }
-        return gate;
+        GateImpl gate = gates.get(name);
+        if (gate != null) return gate;
+        return getRegistry().find(name.toLowerCase());
     }
 
     public static GateImpl get(String name) {
@@ -134,12 +173,19 @@ public final class Gates {
         if (gates.containsKey(gate.getFullName()))
             throw new GateException("a gate with the same name already exists here");
         gates.put(gate.getFullName(), gate);
-        for (LocalGateImpl lg : getLocalGates())
+        version++;
+        ChatRoutes.invalidate();
+        if (gate instanceof LocalGateImpl) {
+            addLinks((LocalGateImpl)gate);
+            ((LocalGateImpl)gate).onGateAdded(gate);
+        }
+        for (LocalGateImpl lg : getLinkedGates(gate))
             lg.onGateAdded(gate);
         if (gate instanceof LocalGateImpl) {
             LocalGateImpl lg = (LocalGateImpl)gate;
             LocalGateCreateEvent event = new LocalGateCreateEvent(lg);
             Global.plugin.getServer().getPluginManager().callEvent(event);
+            Revisions.gateChanged(lg.getLocalName(), false);
             for (Server server : Servers.getAll())
                 server.sendGateAdded(lg);
             World world = lg.getWorld();
@@ -157,13 +203,19 @@ public final class Gates {
     public static void remove(GateImpl gate) throws GateException {
         if (! gates.containsKey(gate.getFullName()))
             throw new GateException("gate not found");
-        for (LocalGateImpl lg : getLocalGates())
+        if (gate instanceof LocalGateImpl)
+            ((LocalGateImpl)gate).onGateRemoved(gate);
+        for (LocalGateImpl lg : getLinkedGates(gate))
             lg.onGateRemoved(gate);
         gates.remove(gate.getFullName());
+        version++;
+        ChatRoutes.invalidate();
         if (gate instanceof LocalGateImpl) {
             LocalGateImpl lg = (LocalGateImpl)gate;
+            removeLinks(lg);
             deselectGate(lg);
             lg.save(false);
+            Revisions.gateChanged(lg.getLocalName(), true);
             for (Server server : Servers.getAll())
                 server.sendGateRemoved(lg);
         }
@@ -171,14 +223,18 @@ public final class Gates {
 
     public static void destroy(GateImpl gate, boolean unbuild) {
         gates.remove(gate.getFullName());
-        for (LocalGateImpl lg : getLocalGates())
+        version++;
+        ChatRoutes.invalidate();
+        for (LocalGateImpl lg : getLinkedGates(gate))
             lg.onGateDestroyed(gate);
         if (gate instanceof LocalGateImpl) {
             LocalGateImpl lg = (LocalGateImpl)gate;
+            removeLinks(lg);
             deselectGate(lg);
             LocalGateDestroyEvent event = new LocalGateDestroyEvent(lg);
             Global.plugin.getServer().getPluginManager().callEvent(event);
             lg.destroy(unbuild);
+            Revisions.gateChanged(lg.getLocalName(), true);
             for (Server server : Servers.getAll())
                 server.sendGateDestroyed(lg);
         }
@@ -199,31 +255,91 @@ public final class Gates {
     public static void rename(GateImpl gate, String oldFullName) {
         gates.remove(oldFullName);
         gates.put(gate.getFullName(), gate);
-        for (LocalGateImpl lg : getLocalGates())
+        version++;
+        ChatRoutes.invalidate();
+        for (LocalGateImpl lg : getLinkedGates(oldFullName, gate))
             lg.onGateRenamed(gate, oldFullName);
         if (gate instanceof LocalGateImpl) {
             LocalGateImpl lg = (LocalGateImpl)gate;
             lg.onRenameComplete();
+            Revisions.gateChanged(oldFullName, true);
+            Revisions.gateChanged(lg.getLocalName(), false);
             for (Server server : Servers.getAll())
                 server.sendGateRenamed(oldFullName, gate.getName());
         }
     }
 
     public static void removeGatesForWorld(World world) {
-        for (LocalGateImpl lg : getLocalGates()) {
-            if (lg.getWorld() == world)
-                try {
-                    remove(lg);
-                } catch (GateException ee) {}
-        }
+        for (LocalGateImpl lg : getLocalGates(world))
+            try {
+                remove(lg);
+            } catch (GateException ee) {}
     }
 
     public static void removeGatesForServer(Server server) {
-        for (RemoteGateImpl rg : getRemoteGates())
-            if (rg.getRemoteServer() == server)
-                try {
-                    remove(rg);
-                } catch (GateException ee) {}
+        for (RemoteGateImpl rg : getRemoteGates(server))
+            try {
+                remove(rg);
+            } catch (GateException ee) {}
+    }
+
+    // called by a local gate whenever its links or incoming connections change
+    static void linksChanged(LocalGateImpl lg) {
+        Set<String> oldNames = linkedTo.get(lg);
+        if (oldNames == null) return;
+        Set<String> newNames = lg.getLinkedGateNames();
+        for (String name : oldNames)
+            if (! newNames.contains(name))
+                unlink(name, lg);
+        for (String name : newNames)
+            if (! oldNames.contains(name))
+                link(name, lg);
+        linkedTo.put(lg, newNames);
+    }
+
+    private static void addLinks(LocalGateImpl lg) {
+        Set<String> names = lg.getLinkedGateNames();
+        linkedTo.put(lg, names);
+        for (String name : names)
+            link(name, lg);
+    }
+
+    private static void removeLinks(LocalGateImpl lg) {
+        Set<String> names = linkedTo.remove(lg);
+        if (names == null) return;
+        for (String name : names)
+            unlink(name, lg);
+    }
+
+    private static void link(String name, LocalGateImpl lg) {
+        Set<LocalGateImpl> from = linkedFrom.get(name);
+        if (from == null) {
+            from = new HashSet<LocalGateImpl>();
+            linkedFrom.put(name, from);
+        }
+        from.add(lg);
+    }
+
+    private static void unlink(String name, LocalGateImpl lg) {
+        Set<LocalGateImpl> from = linkedFrom.get(name);
+        if (from == null) return;
+        from.remove(lg);
+        if (from.isEmpty())
+            linkedFrom.remove(name);
+    }
+
+    private static List<LocalGateImpl> getLinkedGates(GateImpl gate) {
+        return getLinkedGates(gate.getFullName(), gate);
+    }
+
+    // the local gates linked with the named gate, other than the gate itself,
+    // copied since they may change their links when they're told about it
+    private static List<LocalGateImpl> getLinkedGates(String name, GateImpl gate) {
+        Set<LocalGateImpl> from = linkedFrom.get(name);
+        if (from == null) return Collections.emptyList();
+        List<LocalGateImpl> lgs = new ArrayList<LocalGateImpl>(from);
+        lgs.remove(gate);
+        return lgs;
     }
 
     public static LocalGateImpl getLocalGate(String name) {
@@ -232,80 +348,186 @@ public final class Gates {
         return (LocalGateImpl)gate;
     }
 
-    public static Set<LocalGateImpl> getLocalGates() {
-        Set<LocalGateImpl> gs = new HashSet<LocalGateImpl>();
-        for (GateImpl gate : gates.values())
-            if (gate instanceof LocalGateImpl) gs.add((LocalGateImpl)gate);
+    // these all return immutable lists that can be used from any thread
+
+    public static List<LocalGateImpl> getLocalGates() {
+        return getRegistry().localGates;
+    }
+
+    public static List<LocalGateImpl> getLocalGates(World world) {
+        List<LocalGateImpl> gs = getRegistry().worldGates.get(world);
+        if (gs == null) return Collections.emptyList();
         return gs;
     }
 
-    public static Set<RemoteGateImpl> getRemoteGates() {
-        Set<RemoteGateImpl> gs = new HashSet<RemoteGateImpl>();
-        for (GateImpl gate : gates.values())
-            if (gate instanceof RemoteGateImpl) gs.add((RemoteGateImpl)gate);
+    public static List<RemoteGateImpl> getRemoteGates() {
+        return getRegistry().remoteGates;
+    }
+
+    public static List<RemoteGateImpl> getRemoteGates(Server server) {
+        List<RemoteGateImpl> gs = getRegistry().serverGates.get(server);
+        if (gs == null) return Collections.emptyList();
         return gs;
     }
 
+    private static Registry getRegistry() {
+        Registry r = registry;
+        int v = version;
+        if ((r == null) || (r.version != v)) {
+            // building more than one at a time is harmless
+            r = new Registry(v);
+            registry = r;
+        }
+        return r;
+    }
+
 
 
     public static LocalGateImpl findGateForPortal(Location loc) {
+        if (! mayHaveGate(loc)) return null;
         return portalMap.getGate(loc);
     }
 
     public static void addPortalVolume(Volume vol) {
         portalMap.put(vol);
+        addGateChunks(vol);
     }
 
     public static void removePortalVolume(LocalGateImpl gate) {
-        portalMap.removeGate(gate);
+        removeGateChunks(portalMap.removeGate(gate));
     }
 
     public static LocalGateImpl findGateForProtection(Location loc) {
+        if (! mayHaveGate(loc)) return null;
         return protectionMap.getGate(loc);
     }
 
     public static void addProtectionVolume(Volume vol) {
         protectionMap.put(vol);
+        addGateChunks(vol);
     }
 
     public static void removeProtectionVolume(LocalGateImpl gate) {
-        protectionMap.removeGate(gate);
+        removeGateChunks(protectionMap.removeGate(gate));
     }
 
     public static LocalGateImpl findGateForScreen(Location loc) {
+        if (! mayHaveGate(loc)) return null;
         return screenMap.getGate(loc);
     }
 
     public static void addScreenVolume(Volume vol) {
         screenMap.put(vol);
+        addGateChunks(vol);
     }
 
     public static void removeScreenVolume(LocalGateImpl gate) {
-        screenMap.removeGate(gate);
+        removeGateChunks(screenMap.removeGate(gate));
     }
 
     public static LocalGateImpl findGateForSwitch(Location loc) {
+        if (! mayHaveGate(loc)) return null;
         return switchMap.getGate(loc);
     }
 
     public static void addSwitchVolume(Volume vol) {
         switchMap.put(vol);
+        addGateChunks(vol);
     }
 
     public static void removeSwitchVolume(LocalGateImpl gate) {
-        switchMap.removeGate(gate);
+        removeGateChunks(switchMap.removeGate(gate));
     }
 
     public static LocalGateImpl findGateForTrigger(Location loc) {
+        if (! mayHaveGate(loc)) return null;
         return triggerMap.getGate(loc);
     }
 
     public static void addTriggerVolume(Volume vol) {
         triggerMap.put(vol);
+        addGateChunks(vol);
     }
 
     public static void removeTriggerVolume(LocalGateImpl gate) {
-        triggerMap.removeGate(gate);
+        removeGateChunks(triggerMap.removeGate(gate));
+    }
+
+    public static long getChunkCacheHits() {
+        return chunkCacheHits;
+    }
+
+    public static long getChunkCacheMisses() {
+        return chunkCacheMisses;
+    }
+
+    public static int getGateChunkCount() {
+        int count = 0;
+        for (LongMap<int[]> chunks : gateChunks.values())
+            count += chunks.size();
+        return count;
+    }
+
+    public static void resetChunkCacheCounters() {
+        chunkCacheHits = chunkCacheMisses = 0;
+    }
+
+    private static boolean mayHaveGate(Location loc) {
+        LongMap<int[]> chunks = gateChunks.get(loc.getWorld());
+        if (((chunks == null) || (! chunks.containsKey(GateMap.chunkKey(loc.getBlockX() >> 4, loc.getBlockZ() >> 4)))) &&
+            (! wideGateCounts.containsKey(loc.getWorld()))) {
+            chunkCacheHits++;
+            return false;
+        }
+        chunkCacheMisses++;
+        return true;
+    }
+
+    private static void addGateChunks(Volume vol) {
+        World world = vol.getWorld();
+        long[] keys = vol.getChunkKeys();
+        if (keys == null) {
+            int[] count = wideGateCounts.get(world);
+            if (count == null)
+                wideGateCounts.put(world, new int[] {1});
+            else
+                count[0]++;
+            return;
+        }
+        LongMap<int[]> chunks = gateChunks.get(world);
+        if (chunks == null) {
+            chunks = new LongMap<int[]>();
+            gateChunks.put(world, chunks);
+        }
+        for (long key : keys) {
+            int[] count = chunks.get(key);
+            if (count == null)
+                chunks.put(key, new int[] {1});
+            else
+                count[0]++;
+        }
+    }
+
+    private static void removeGateChunks(List<Volume> vols) {
+        if (vols == null) return;
+        for (Volume vol : vols) {
+            long[] keys = vol.getChunkKeys();
+            if (keys == null) {
+                int[] count = wideGateCounts.get(vol.getWorld());
+                if ((count != null) && (--count[0] == 0))
+                    wideGateCounts.remove(vol.getWorld());
+                continue;
+            }
+            LongMap<int[]> chunks = gateChunks.get(vol.getWorld());
+            if (chunks == null) continue;
+            for (long key : keys) {
+                int[] count = chunks.get(key);
+                if ((count != null) && (--count[0] == 0))
+                    chunks.remove(key);
+            }
+            if (chunks.isEmpty())
+                gateChunks.remove(vol.getWorld());
+        }
     }
 
     public static void dumpMaps() {
@@ -335,6 +557,84 @@ public final class Gates {
         for (GateImpl gate : new HashSet<GateImpl>(gates.values()))
             if (gate instanceof GateImpl)
                 gates.remove(gate.getFullName());
+        version++;
+        linkedFrom.clear();
+        linkedTo.clear();
+        ChatRoutes.invalidate();
+    }
+
+    // An immutable view of the gates at one version, with every gate sorted
+    // by lowercase full name so a prefix can be found with a binary search.
+    private static final class Registry {
+
+        private static final Comparator<Map.Entry<String,GateImpl>> NAME_ORDER = new Comparator<Map.Entry<String,GateImpl>>() {
+            @Override
+            public int compare(Map.Entry<String,GateImpl> a, Map.Entry<String,GateImpl> b) {
+                return a.getKey().compareTo(b.getKey());
+            }
+        };
+
+        private final int version;
+        private final List<LocalGateImpl> localGates;
+        private final List<RemoteGateImpl> remoteGates;
+        private final Map<World,List<LocalGateImpl>> worldGates = new HashMap<World,List<LocalGateImpl>>();
+        private final Map<Server,List<RemoteGateImpl>> serverGates = new HashMap<Server,List<RemoteGateImpl>>();
+        private final String[] names;
+        private final GateImpl[] namedGates;
+
+        private Registry(int version) {
+            this.version = version;
+            List<LocalGateImpl> lgs = new ArrayList<LocalGateImpl>();
+            List<RemoteGateImpl> rgs = new ArrayList<RemoteGateImpl>();
+            List<Map.Entry<String,GateImpl>> named = new ArrayList<Map.Entry<String,GateImpl>>(gates.size());
+            for (GateImpl gate : gates.values()) {
+                if (gate instanceof LocalGateImpl) {
+                    LocalGateImpl lg = (LocalGateImpl)gate;
+                    lgs.add(lg);
+                    List<LocalGateImpl> wgs = worldGates.get(lg.getWorld());
+                    if (wgs == null) {
+                        wgs = new ArrayList<LocalGateImpl>();
+                        worldGates.put(lg.getWorld(), wgs);
+                    }
+                    wgs.add(lg);
+                } else if (gate instanceof RemoteGateImpl) {
+                    RemoteGateImpl rg = (RemoteGateImpl)gate;
+                    rgs.add(rg);
+                    Server server = (Server)rg.getRemoteServer();
+                    List<RemoteGateImpl> sgs = serverGates.get(server);
+                    if (sgs == null) {
+                        sgs = new ArrayList<RemoteGateImpl>();
+                        serverGates.put(server, sgs);
+                    }
+                    sgs.add(rg);
+                }
+                named.add(new AbstractMap.SimpleImmutableEntry<String,GateImpl>(gate.getFullName().toLowerCase(), gate));
+            }
+            localGates = Collections.unmodifiableList(lgs);
+            remoteGates = Collections.unmodifiableList(rgs);
+            for (Map.Entry<World,List<LocalGateImpl>> e : worldGates.entrySet())
+                e.setValue(Collections.unmodifiableList(e.getValue()));
+            for (Map.Entry<Server,List<RemoteGateImpl>> e : serverGates.entrySet())
+                e.setValue(Collections.unmodifiableList(e.getValue()));
+
+            Collections.sort(named, NAME_ORDER);
+            names = new String[named.size()];
+            namedGates = new GateImpl[named.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = named.get(i).getKey();
+                namedGates[i] = named.get(i).getValue();
+            }
+        }
+
+        // the only gate whose lowercase name starts with the prefix
+        private GateImpl find(String prefix) {
+            int i = Arrays.binarySearch(names, prefix);
+            if (i < 0) i = -(i + 1);
+            if ((i >= names.length) || (! names[i].startsWith(prefix))) return null;
+            if (((i + 1) < names.length) && names[i + 1].startsWith(prefix)) return null;
+            return namedGates[i];
+        }
+
     }
 
 }
@@ -261,4 +261,22 @@ public final class Inventory {
         return true;
     }
 
+    // gives back blocks taken by deductBlocks, dropping whatever doesn't fit
+    public static void returnBlocks(Player player, Map<Material,Integer> blocks) {
+        if ((player == null) || (blocks == null) || blocks.isEmpty()) return;
+        PlayerInventory inv = player.getInventory();
+        for (Material material : blocks.keySet()) {
+            int count = blocks.get(material);
+            if (count <= 0) continue;
+            switch (material) {
+                case WALL_SIGN:
+                case SIGN_POST:
+                    material = Material.SIGN;
+                    break;
+            }
+            for (ItemStack stack : inv.addItem(new ItemStack(material, count)).values())
+                player.getWorld().dropItemNaturally(player.getLocation(), stack);
+        }
+    }
+
 }
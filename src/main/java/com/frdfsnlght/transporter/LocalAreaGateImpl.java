@@ -32,6 +32,7 @@ import com.frdfsnlght.transporter.api.SpawnSearch;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Entity;
 import org.bukkit.util.Vector;
@@ -42,6 +43,26 @@ import org.bukkit.util.Vector;
  */
 public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaGate {
 
+    private static final int MAX_SPAWN_CHUNKS = 16;
+    // bigger areas search for a spawn location every time
+    private static final int MAX_SPAWN_CACHE_CELLS = 262144;
+    private static final int MAX_SPAWN_CACHE_TRIES = 10;
+
+    // gates with spawn caches, which need to hear about block changes
+    private static final Set<LocalAreaGateImpl> spawnCacheGates = new HashSet<LocalAreaGateImpl>();
+
+    // called after a block may have changed
+    public static void blockChanged(Block block) {
+        blockChanged(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    public static void blockChanged(World world, int x, int y, int z) {
+        if (spawnCacheGates.isEmpty()) return;
+        for (LocalAreaGateImpl gate : spawnCacheGates)
+            if (gate.world == world)
+                gate.spawnCache.blockChanged(x, y, z);
+    }
+
     private static final Set<String> OPTIONS = new HashSet<String>(LocalGateImpl.BASEOPTIONS);
 
     static {
@@ -67,6 +88,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     private Material boxMaterial;
 
     private List<SavedBlock> boxBlocks = null;
+    private SpawnCache spawnCache = null;
 
 
     // creation from file
@@ -152,8 +174,58 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     @Override
     public GateType getType() { return GateType.AREA; }
 
+    @Override
+    public long[] getSpawnChunkKeys() {
+        Bounds bounds = new Bounds(p1, p2);
+        int minX = bounds.min.x >> 4, maxX = bounds.max.x >> 4;
+        int minZ = bounds.min.z >> 4, maxZ = bounds.max.z >> 4;
+        // areas this big aren't worth loading ahead of time
+        if (((long)(maxX - minX + 1) * (maxZ - minZ + 1)) > MAX_SPAWN_CHUNKS)
+            return new long[0];
+        long[] keys = new long[(maxX - minX + 1) * (maxZ - minZ + 1)];
+        int i = 0;
+        for (int cx = minX; cx <= maxX; cx++)
+            for (int cz = minZ; cz <= maxZ; cz++)
+                keys[i++] = GateMap.chunkKey(cx, cz);
+        return keys;
+    }
+
     @Override
     public Location getSpawnLocation(Location fromLocation, BlockFace fromDirection) {
+        Bounds bounds = new Bounds(p1, p2);
+        if (((long)(bounds.sizeX() + 1) * (bounds.sizeY() + 1) * (bounds.sizeZ() + 1)) <= MAX_SPAWN_CACHE_CELLS) {
+            if (spawnCache == null) {
+                spawnCache = new SpawnCache(bounds);
+                spawnCacheGates.add(this);
+            }
+            Random random = new Random();
+            for (int tries = 0; tries < MAX_SPAWN_CACHE_TRIES; tries++) {
+                int[] cell = spawnCache.pick(random);
+                if (cell == null) break;
+                int x = cell[0], y = cell[1], z = cell[2];
+                // something could have changed without an event
+                if (! isSpawnable(x, y, z)) {
+                    spawnCache.blockChanged(x, y, z);
+                    continue;
+                }
+                Location toLocation = new Location(world, (double)x + 0.5, y, (double)z + 0.5);
+                toLocation.setYaw(spawnDirection.calculateYaw(fromLocation.getYaw(), fromDirection, getDirection()));
+                toLocation.setPitch(fromLocation.getPitch());
+                return toLocation;
+            }
+        }
+        // cells can become spawnable without an event too
+        Location toLocation = searchSpawnLocation(fromLocation, fromDirection);
+        if (toLocation != null) {
+            clearSpawnCache();
+            return toLocation;
+        }
+        Utils.warning("Unable to find a suitable spawnlocation for gate '%s'!", getLocalName());
+        return p1;
+    }
+
+    // returns null if nowhere was found
+    private Location searchSpawnLocation(Location fromLocation, BlockFace fromDirection) {
         Random random = new Random();
         Bounds bounds = new Bounds(p1, p2);
         for (int tries = 0; tries < 1000; tries++) {
@@ -173,25 +245,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
 
             while (! endLoop) {
                 // can the location hold the player?
-                Material footBlock = world.getBlockAt(x, y, z).getType();
-                Material headBlock = world.getBlockAt(x, y + 1, z).getType();
-
-                if ((footBlock == Material.AIR) && (headBlock == Material.AIR))
-                    goodLocation = true;
-                else if (spawnSolid && (isSolid(footBlock) || isSolid(headBlock)))
-                    goodLocation = true;
-                else if (spawnLiquid &&
-                        (
-                            (isLiquid(footBlock) && (! isSolid(headBlock))) ||
-                            (isLiquid(headBlock) && (! isSolid(footBlock)))
-                        ))
-                    goodLocation = true;
-
-                // check for air block under player
-                if (goodLocation && (! spawnAir)) {
-                    if ((y == 0) || (world.getBlockAt(x, y - 1, z).getType() == Material.AIR))
-                        goodLocation = false;
-                }
+                goodLocation = isSpawnable(x, y, z);
 
                 if (goodLocation)
                     endLoop = true;
@@ -226,8 +280,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
                 return toLocation;
             }
         }
-        Utils.warning("Unable to find a suitable spawnlocation for gate '%s'!", getLocalName());
-        return p1;
+        return null;
     }
 
     @Override
@@ -258,11 +311,13 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     @Override
     protected void onRemove() {
         Gates.removePortalVolume(this);
+        clearSpawnCache();
     }
 
     @Override
     protected void onDestroy(boolean unbuild) {
         Gates.removePortalVolume(this);
+        clearSpawnCache();
         if (unbuild && box) hideBox();
     }
 
@@ -349,6 +404,8 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     private void setCorners(Location l1, Location l2) {
         p1 = l1;
         p2 = l2;
+        dirty = true;
+        clearSpawnCache();
         if (box) showBox();
         if (portalOpen) {
             Gates.removePortalVolume(this);
@@ -406,15 +463,51 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
                (m == Material.STATIONARY_LAVA);
     }
 
+    // can a player spawn with their feet in the block?
+    private boolean isSpawnable(int x, int y, int z) {
+        return isSpawnable(
+                Material.getMaterial(world.getBlockTypeIdAt(x, y - 1, z)),
+                Material.getMaterial(world.getBlockTypeIdAt(x, y, z)),
+                Material.getMaterial(world.getBlockTypeIdAt(x, y + 1, z)),
+                y);
+    }
+
+    private boolean isSpawnable(Material floorBlock, Material footBlock, Material headBlock, int y) {
+        boolean goodLocation = false;
+        if ((footBlock == Material.AIR) && (headBlock == Material.AIR))
+            goodLocation = true;
+        else if (spawnSolid && (isSolid(footBlock) || isSolid(headBlock)))
+            goodLocation = true;
+        else if (spawnLiquid &&
+                (
+                    (isLiquid(footBlock) && (! isSolid(headBlock))) ||
+                    (isLiquid(headBlock) && (! isSolid(footBlock)))
+                ))
+            goodLocation = true;
+        if (goodLocation && (! spawnAir))
+            if ((y == 0) || (floorBlock == Material.AIR))
+                goodLocation = false;
+        return goodLocation;
+    }
+
+    private void clearSpawnCache() {
+        if (spawnCache == null) return;
+        spawnCache = null;
+        spawnCacheGates.remove(this);
+    }
+
     private void hideBox() {
         if (boxBlocks == null) return;
+        clearSpawnCache();
         for (SavedBlock b : boxBlocks)
             b.restore();
         boxBlocks = null;
+        dirty = true;
     }
 
     private void showBox() {
         if (boxBlocks != null) hideBox();
+        clearSpawnCache();
         boxBlocks = new ArrayList<SavedBlock>();
         Bounds bounds = new Bounds(p1, p2);
         Location l = bounds.min.toLocation(world);
@@ -435,6 +528,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
                 }
             }
         }
+        dirty = true;
     }
 
     private Volume getBoxVolume() {
@@ -458,6 +552,135 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
         return vol;
     }
 
+    // Every cell in the bounds a player could spawn in, weighted by how
+    // likely the spawn search is to land on it from a random starting
+    // cell. Each column holds packed (cumulative weight, y offset) cells.
+    // Columns that might have changed are rebuilt the next time a cell is
+    // picked.
+    private final class SpawnCache {
+
+        private final int minX, minY, minZ;
+        private final int sizeX, sizeY, sizeZ;
+        private final int[][] columns;
+        private final int[] columnWeights;
+        private final boolean[] stale;
+        private final List<Integer> staleColumns = new ArrayList<Integer>();
+
+        private SpawnCache(Bounds bounds) {
+            minX = bounds.min.x;
+            minY = bounds.min.y;
+            minZ = bounds.min.z;
+            sizeX = bounds.sizeX() + 1;
+            sizeY = bounds.sizeY() + 1;
+            sizeZ = bounds.sizeZ() + 1;
+            columns = new int[sizeX * sizeZ][];
+            columnWeights = new int[columns.length];
+            stale = new boolean[columns.length];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = scanColumn(minX + (i / sizeZ), minZ + (i % sizeZ));
+            sumColumns();
+        }
+
+        private void blockChanged(int x, int y, int z) {
+            if ((x < minX) || (x >= (minX + sizeX)) ||
+                (z < minZ) || (z >= (minZ + sizeZ)) ||
+                (y < (minY - 1)) || (y > (minY + sizeY))) return;
+            int i = ((x - minX) * sizeZ) + (z - minZ);
+            if (stale[i]) return;
+            stale[i] = true;
+            staleColumns.add(i);
+        }
+
+        // returns the x, y and z of a cell, or null if there's nowhere to spawn
+        private int[] pick(Random random) {
+            if (! staleColumns.isEmpty()) {
+                for (int i : staleColumns) {
+                    columns[i] = scanColumn(minX + (i / sizeZ), minZ + (i % sizeZ));
+                    stale[i] = false;
+                }
+                staleColumns.clear();
+                sumColumns();
+            }
+            int total = columnWeights[columnWeights.length - 1];
+            if (total == 0) return null;
+            int w = random.nextInt(total);
+            int i = search(columnWeights, w, 0);
+            if (i > 0) w -= columnWeights[i - 1];
+            int[] column = columns[i];
+            int cell = column[search(column, w, 12)];
+            return new int[] { minX + (i / sizeZ), minY + (cell & 0xfff), minZ + (i % sizeZ) };
+        }
+
+        private void sumColumns() {
+            int sum = 0;
+            for (int i = 0; i < columns.length; i++) {
+                int[] column = columns[i];
+                if (column.length > 0)
+                    sum += column[column.length - 1] >>> 12;
+                columnWeights[i] = sum;
+            }
+        }
+
+        // index of the first entry whose cumulative weight is more than w
+        private int search(int[] entries, int w, int shift) {
+            int lo = 0, hi = entries.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if ((entries[mid] >>> shift) > w)
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+            return lo;
+        }
+
+        private int[] scanColumn(int x, int z) {
+            Material[] types = new Material[sizeY + 2];
+            for (int n = 0; n < types.length; n++)
+                types[n] = Material.getMaterial(world.getBlockTypeIdAt(x, minY - 1 + n, z));
+            boolean[] valid = new boolean[sizeY];
+            for (int n = 0; n < sizeY; n++)
+                valid[n] = isSpawnable(types[n], types[n + 1], types[n + 2], minY + n);
+
+            // the nearest valid cell at or below, and at or above, each cell
+            int[] below = new int[sizeY];
+            int[] above = new int[sizeY];
+            for (int n = 0, last = -1; n < sizeY; n++) {
+                if (valid[n]) last = n;
+                below[n] = last;
+            }
+            for (int n = sizeY - 1, last = -1; n >= 0; n--) {
+                if (valid[n]) last = n;
+                above[n] = last;
+            }
+
+            // count where a search from each starting cell ends up
+            int[] weights = new int[sizeY];
+            int count = 0;
+            for (int n = 0; n < sizeY; n++) {
+                int target;
+                switch (spawnSearch) {
+                    case UP: target = above[n]; break;
+                    case DOWN: target = below[n]; break;
+                    case UPDOWN: target = (above[n] != -1) ? above[n] : below[n]; break;
+                    default: target = (below[n] != -1) ? below[n] : above[n]; break;
+                }
+                if (target == -1) continue;
+                if (weights[target]++ == 0) count++;
+            }
+
+            int[] column = new int[count];
+            int sum = 0;
+            for (int n = 0, c = 0; n < sizeY; n++) {
+                if (weights[n] == 0) continue;
+                sum += weights[n];
+                column[c++] = (sum << 12) | n;
+            }
+            return column;
+        }
+
+    }
+
     /* Begin options */
 
     @Override
@@ -523,6 +746,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     @Override
     public void setSpawnAir(boolean b) {
         spawnAir = b;
+        clearSpawnCache();
         dirty = true;
     }
 
@@ -534,6 +758,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     @Override
     public void setSpawnSolid(boolean b) {
         spawnSolid = b;
+        clearSpawnCache();
         dirty = true;
     }
 
@@ -545,6 +770,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     @Override
     public void setSpawnLiquid(boolean b) {
         spawnLiquid = b;
+        clearSpawnCache();
         dirty = true;
     }
 
@@ -556,6 +782,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     @Override
     public void setSpawnSearch(SpawnSearch s) {
         spawnSearch = s;
+        clearSpawnCache();
         dirty = true;
     }
 
@@ -584,6 +811,7 @@ public final class LocalAreaGateImpl extends LocalGateImpl implements LocalAreaG
     @Override
     public void setBoxMaterial(Material m) {
         boxMaterial = m;
+        dirty = true;
         if (box) showBox();
     }
 
@@ -44,6 +44,8 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
 
     private static final Pattern NEWLINE_PATTERN = Pattern.compile("\\\\n");
 
+    private static final Random random = new Random();
+
     private static final Set<String> OPTIONS = new HashSet<String>(LocalGateImpl.BASEOPTIONS);
 
     static {
@@ -54,47 +56,67 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
     private boolean restoreOnClose;
 
     private List<GateBlock> blocks;
+    private BlockTables tables;
     private List<SavedBlock> savedBlocks = null;
 
     // creation from file
     public LocalBlockGateImpl(World world, TypeMap conf) throws GateException {
+        this(world, conf, decodeBlocks(conf));
+    }
+
+    // the block lists were already decoded, maybe on another thread
+    LocalBlockGateImpl(World world, TypeMap conf, BlockLists lists) throws GateException {
         super(world, conf);
         options = new Options(this, OPTIONS, "trp.gate", this);
 
         designName = conf.getString("designName");
         restoreOnClose = conf.getBoolean("restoreOnClose", false);
 
+        blocks = lists.blocks;
+        for (GateBlock block : blocks)
+            block.setWorld(world);
+        savedBlocks = lists.savedBlocks;
+        if (savedBlocks != null)
+            for (SavedBlock block : savedBlocks)
+                block.setWorld(world);
+
+        tables = new BlockTables(blocks);
+        calculateCenter();
+        validate();
+    }
+
+    // doesn't need the world, so it can be called from any thread
+    static BlockLists decodeBlocks(TypeMap conf) throws GateException {
+        BlockLists lists = new BlockLists();
         List<TypeMap> maps = conf.getMapList("blocks");
         if (maps == null)
             throw new GateException("missing blocks");
-        blocks = new ArrayList<GateBlock>();
+        lists.blocks = new ArrayList<GateBlock>(maps.size());
         for (TypeMap map : maps) {
             try {
-                GateBlock block = new GateBlock(map);
-                block.setWorld(world);
-                blocks.add(block);
+                lists.blocks.add(new GateBlock(map));
             } catch (BlockException be) {
                 throw new GateException(be.getMessage());
             }
         }
 
         maps = conf.getMapList("saved");
-        if (maps != null) {
-            savedBlocks = new ArrayList<SavedBlock>();
+        if ((maps != null) && (! maps.isEmpty())) {
+            lists.savedBlocks = new ArrayList<SavedBlock>(maps.size());
             for (TypeMap map : maps) {
                 try {
-                    SavedBlock block = new SavedBlock(map);
-                    block.setWorld(world);
-                    savedBlocks.add(block);
+                    lists.savedBlocks.add(new SavedBlock(map));
                 } catch (BlockException be) {
                     throw new GateException(be.getMessage());
                 }
             }
-            if (savedBlocks.isEmpty()) savedBlocks = null;
         }
+        return lists;
+    }
 
-        calculateCenter();
-        validate();
+    static final class BlockLists {
+        private List<GateBlock> blocks;
+        private List<SavedBlock> savedBlocks = null;
     }
 
     // creation from design
@@ -159,6 +181,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
         replaceItems.putAll(design.getReplaceItems());
 
         this.blocks = tDesign.getBlocks();
+        tables = new BlockTables(blocks);
 
         calculateCenter();
         validate();
@@ -174,10 +197,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
 
     @Override
     public Location getSpawnLocation(Location fromLocation, BlockFace fromDirection) {
-        List<GateBlock> gbs = new ArrayList<GateBlock>();
-        for (GateBlock gb : blocks)
-            if (gb.getDetail().isSpawn()) gbs.add(gb);
-        GateBlock block = gbs.get((new Random()).nextInt(gbs.size()));
+        GateBlock block = tables.spawn[random.nextInt(tables.spawn.length)];
         Location toLocation = block.getLocation().clone();
         toLocation.add(0.5, 0, 0.5);
         toLocation.setYaw(block.getDetail().getSpawn().calculateYaw(fromLocation.getYaw(), fromDirection, getDirection()));
@@ -185,15 +205,22 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
         return toLocation;
     }
 
+    @Override
+    public long[] getSpawnChunkKeys() {
+        Set<Long> keys = new HashSet<Long>();
+        for (GateBlock gb : tables.spawn)
+            keys.add(GateMap.chunkKey(gb.getLocation().getBlockX() >> 4, gb.getLocation().getBlockZ() >> 4));
+        long[] out = new long[keys.size()];
+        int i = 0;
+        for (long key : keys)
+            out[i++] = key;
+        return out;
+    }
+
     @Override
     public void onSend(Entity entity) {
-        List<GateBlock> gbs = new ArrayList<GateBlock>();
-        for (GateBlock gb : blocks) {
-            if (gb.getDetail().getSendLightningMode() != LightningMode.NONE)
-                gbs.add(gb);
-        }
-        if (gbs.isEmpty()) return;
-        GateBlock block = gbs.get((new Random()).nextInt(gbs.size()));
+        if (tables.sendLightning.length == 0) return;
+        GateBlock block = tables.sendLightning[random.nextInt(tables.sendLightning.length)];
         switch (block.getDetail().getSendLightningMode()) {
             case NORMAL:
                 world.strikeLightning(block.getLocation());
@@ -206,13 +233,8 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
 
     @Override
     public void onReceive(Entity entity) {
-        List<GateBlock> gbs = new ArrayList<GateBlock>();
-        for (GateBlock gb : blocks) {
-            if (gb.getDetail().getReceiveLightningMode() != LightningMode.NONE)
-                gbs.add(gb);
-        }
-        if (gbs.isEmpty()) return;
-        GateBlock block = gbs.get((new Random()).nextInt(gbs.size()));
+        if (tables.receiveLightning.length == 0) return;
+        GateBlock block = tables.receiveLightning[random.nextInt(tables.receiveLightning.length)];
         switch (block.getDetail().getReceiveLightningMode()) {
             case NORMAL:
                 world.strikeLightning(block.getLocation());
@@ -235,8 +257,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
 
     @Override
     public void rebuild() {
-        for (GateBlock gb : blocks) {
-            if (! gb.getDetail().isBuildable()) continue;
+        for (GateBlock gb : tables.buildable) {
             if (portalOpen && gb.getDetail().isPortal()) continue;
             gb.getDetail().getBuildBlock().build(gb.getLocation());
         }
@@ -282,11 +303,10 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
         Gates.removeTriggerVolume(this);
         Gates.removeSwitchVolume(this);
         if (unbuild) {
-            for (GateBlock gb : blocks) {
-                if (! gb.getDetail().isBuildable()) continue;
-                Block b = gb.getLocation().getBlock();
-                b.setTypeIdAndData(0, (byte)0, false);
-            }
+            List<Location> locations = new ArrayList<Location>(tables.buildable.length);
+            for (GateBlock gb : tables.buildable)
+                locations.add(gb.getLocation());
+            BuildJob.clear(locations, null);
         }
     }
 
@@ -358,67 +378,38 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
     }
 
     public GateBlock getGateBlock(Location loc) {
-        for (GateBlock gb : blocks) {
-            Location gbLoc = gb.getLocation();
-            if ((loc.getBlockX() == gbLoc.getBlockX()) &&
-                (loc.getBlockY() == gbLoc.getBlockY()) &&
-                (loc.getBlockZ() == gbLoc.getBlockZ())) return gb;
-        }
-        return null;
+        return tables.byLocation.get(GateMap.blockKey(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()));
     }
 
     private Volume getBuildVolume() {
-        Volume vol = new Volume(this);
-        for (GateBlock gb : blocks) {
-            if (! gb.getDetail().isBuildable()) continue;
-            vol.addPoint(new Point(gb.getLocation()));
-        }
-        return vol;
+        return getVolume(tables.buildable);
     }
 
     private Volume getScreenVolume() {
-        Volume vol = new Volume(this);
-        for (GateBlock gb : blocks) {
-            if (! gb.getDetail().isScreen()) continue;
-            vol.addPoint(new Point(gb.getLocation()));
-        }
-        return vol;
+        return getVolume(tables.screen);
     }
 
     private Volume getTriggerVolume() {
-        Volume vol = new Volume(this);
-        for (GateBlock gb : blocks) {
-            if (! gb.getDetail().isTrigger()) continue;
-            vol.addPoint(new Point(gb.getLocation()));
-        }
-        return vol;
+        return getVolume(tables.trigger);
     }
 
     private Volume getSwitchVolume() {
-        Volume vol = new Volume(this);
-        for (GateBlock gb : blocks) {
-            if (! gb.getDetail().isSwitch()) continue;
-            vol.addPoint(new Point(gb.getLocation()));
-        }
-        return vol;
+        return getVolume(tables.switches);
     }
 
     private Volume getPortalVolume() {
+        return getVolume(tables.portal);
+    }
+
+    private Volume getVolume(GateBlock[] gbs) {
         Volume vol = new Volume(this);
-        for (GateBlock gb : blocks) {
-            if (! gb.getDetail().isPortal()) continue;
+        for (GateBlock gb : gbs)
             vol.addPoint(new Point(gb.getLocation()));
-        }
         return vol;
     }
 
     private void updateScreens() {
-        Set<GateBlock> screens = new HashSet<GateBlock>();
-        for (GateBlock gb : blocks) {
-            if (! gb.getDetail().isScreen()) continue;
-            screens.add(gb);
-        }
-        if (screens.isEmpty()) return;
+        if (tables.screen.length == 0) return;
 
         String format;
         GateImpl toGate = null;
@@ -468,7 +459,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
             lines.addAll(Arrays.asList(NEWLINE_PATTERN.split(format)));
         }
 
-        for (GateBlock gb : screens) {
+        for (GateBlock gb : tables.screen) {
             Block block = gb.getLocation().getBlock();
             BlockState sign = block.getState();
             if (! (sign instanceof Sign)) continue;
@@ -484,8 +475,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
 
     private void openPortal() {
         savedBlocks = new ArrayList<SavedBlock>();
-        for (GateBlock gb : blocks) {
-            if (! gb.getDetail().isOpenable()) continue;
+        for (GateBlock gb : tables.openable) {
             if (restoreOnClose)
                 savedBlocks.add(new SavedBlock(gb.getLocation()));
             gb.getDetail().getOpenBlock().build(gb.getLocation());
@@ -501,8 +491,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
                 b.restore();
             savedBlocks = null;
         } else {
-            for (GateBlock gb : blocks) {
-                if (! gb.getDetail().isOpenable()) continue;
+            for (GateBlock gb : tables.openable) {
                 if (gb.getDetail().isBuildable())
                     gb.getDetail().getBuildBlock().build(gb.getLocation());
                 else
@@ -519,6 +508,63 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
 
 
 
+    // The gate's blocks never change once it's loaded or created, so the
+    // blocks each role needs are found once, along with a map from each
+    // block's packed coordinates to the block.
+    private static final class BlockTables {
+
+        private final GateBlock[] spawn;
+        private final GateBlock[] portal;
+        private final GateBlock[] screen;
+        private final GateBlock[] trigger;
+        private final GateBlock[] switches;
+        private final GateBlock[] buildable;
+        private final GateBlock[] openable;
+        private final GateBlock[] sendLightning;
+        private final GateBlock[] receiveLightning;
+        private final LongMap<GateBlock> byLocation;
+
+        private BlockTables(List<GateBlock> blocks) {
+            List<GateBlock> spawnList = new ArrayList<GateBlock>();
+            List<GateBlock> portalList = new ArrayList<GateBlock>();
+            List<GateBlock> screenList = new ArrayList<GateBlock>();
+            List<GateBlock> triggerList = new ArrayList<GateBlock>();
+            List<GateBlock> switchList = new ArrayList<GateBlock>();
+            List<GateBlock> buildableList = new ArrayList<GateBlock>();
+            List<GateBlock> openableList = new ArrayList<GateBlock>();
+            List<GateBlock> sendLightningList = new ArrayList<GateBlock>();
+            List<GateBlock> receiveLightningList = new ArrayList<GateBlock>();
+            byLocation = new LongMap<GateBlock>(blocks.size());
+            for (GateBlock gb : blocks) {
+                DesignBlockDetail detail = gb.getDetail();
+                if (detail.isSpawn()) spawnList.add(gb);
+                if (detail.isPortal()) portalList.add(gb);
+                if (detail.isScreen()) screenList.add(gb);
+                if (detail.isTrigger()) triggerList.add(gb);
+                if (detail.isSwitch()) switchList.add(gb);
+                if (detail.isBuildable()) buildableList.add(gb);
+                if (detail.isOpenable()) openableList.add(gb);
+                if (detail.getSendLightningMode() != LightningMode.NONE) sendLightningList.add(gb);
+                if (detail.getReceiveLightningMode() != LightningMode.NONE) receiveLightningList.add(gb);
+                Location loc = gb.getLocation();
+                long key = GateMap.blockKey(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+                // the first block at a location wins, like the old linear search
+                if (! byLocation.containsKey(key))
+                    byLocation.put(key, gb);
+            }
+            spawn = spawnList.toArray(new GateBlock[spawnList.size()]);
+            portal = portalList.toArray(new GateBlock[portalList.size()]);
+            screen = screenList.toArray(new GateBlock[screenList.size()]);
+            trigger = triggerList.toArray(new GateBlock[triggerList.size()]);
+            switches = switchList.toArray(new GateBlock[switchList.size()]);
+            buildable = buildableList.toArray(new GateBlock[buildableList.size()]);
+            openable = openableList.toArray(new GateBlock[openableList.size()]);
+            sendLightning = sendLightningList.toArray(new GateBlock[sendLightningList.size()]);
+            receiveLightning = receiveLightningList.toArray(new GateBlock[receiveLightningList.size()]);
+        }
+
+    }
+
     /* Begin options */
 
     @Override
@@ -54,6 +54,15 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             throw new GateException("unable to read %s", file.getAbsoluteFile());
         TypeMap conf = new TypeMap(file);
         conf.load();
+        return load(world, conf);
+    }
+
+    public static LocalGateImpl load(World world, TypeMap conf) throws GateException {
+        return load(world, prepare(conf));
+    }
+
+    // decodes what doesn't need the world, can be called from any thread
+    public static Prepared prepare(TypeMap conf) throws GateException {
         String typeStr = conf.getString("type", "BLOCK");
         GateType type;
         try {
@@ -61,16 +70,37 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         } catch (IllegalArgumentException iae) {
             throw new GateException(iae.getMessage() + " gate type '%s'", typeStr);
         }
+        Prepared prepared = new Prepared(conf, type);
+        if (type == GateType.BLOCK)
+            prepared.blocks = LocalBlockGateImpl.decodeBlocks(conf);
+        return prepared;
+    }
 
-        switch (type) {
+    public static LocalGateImpl load(World world, Prepared prepared) throws GateException {
+        TypeMap conf = prepared.conf;
+        switch (prepared.type) {
             case BLOCK:
-                return new LocalBlockGateImpl(world, conf);
+                return new LocalBlockGateImpl(world, conf, prepared.blocks);
             case AREA:
                 return new LocalAreaGateImpl(world, conf);
             case SERVER:
                 return new LocalServerGateImpl(world, conf);
         }
-        throw new GateException("unknown gate type '%s'", type.toString());
+        throw new GateException("unknown gate type '%s'", prepared.type.toString());
+    }
+
+    // a gate file decoded as far as it can be without its world
+    public static final class Prepared {
+
+        private final TypeMap conf;
+        private final GateType type;
+        private LocalBlockGateImpl.BlockLists blocks = null;
+
+        private Prepared(TypeMap conf, GateType type) {
+            this.conf = conf;
+            this.type = type;
+        }
+
     }
 
     protected static final Set<String> BASEOPTIONS = new HashSet<String>();
@@ -160,10 +190,13 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     protected boolean protect;
     protected boolean sendChat;
     protected String sendChatFilter;
+    protected Pattern sendChatPattern;
     protected String sendChatFormatFilter;
+    protected Pattern sendChatFormatPattern;
     protected int sendChatDistance;
     protected boolean receiveChat;
     protected String receiveChatFilter;
+    protected Pattern receiveChatPattern;
     protected int receiveChatDistance;
     protected boolean requireAllowedItems;
     protected boolean receiveInventory;
@@ -216,6 +249,11 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     protected boolean dirty = false;
     protected boolean portalOpen = false;
     protected long portalOpenTime = 0;
+
+    // the destination's spawn chunks are held while the portal is open
+    private ChunkWarmup.Hold warmup = null;
+    private LocalGateImpl warmupGate = null;
+
     protected Options options = new Options(this, BASEOPTIONS, "trp.gate", this);
 
     protected LocalGateImpl(World world, TypeMap conf) throws GateException {
@@ -336,10 +374,13 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         protect = conf.getBoolean("protect", false);
         sendChat = conf.getBoolean("sendChat", false);
         sendChatFilter = conf.getString("sendChatFilter");
+        sendChatPattern = compileFilter(sendChatFilter);
         sendChatFormatFilter = conf.getString("sendChatFormatFilter");
+        sendChatFormatPattern = compileFilter(sendChatFormatFilter);
         sendChatDistance = conf.getInt("sendChatDistance", 1000);
         receiveChat = conf.getBoolean("receiveChat", false);
         receiveChatFilter = conf.getString("receiveChatFilter");
+        receiveChatPattern = compileFilter(receiveChatFilter);
         receiveChatDistance = conf.getInt("receiveChatDistance", 1000);
         requireAllowedItems = conf.getBoolean("requireAllowedItems", true);
         receiveInventory = conf.getBoolean("receiveInventory", true);
@@ -452,6 +493,8 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     @Override
     public abstract GateType getType();
     public abstract Location getSpawnLocation(Location fromLoc, BlockFace fromDirection);
+    // the chunks arrivals can spawn in, see GateMap.chunkKey
+    public abstract long[] getSpawnChunkKeys();
 
     public abstract void onSend(Entity entity);
     public abstract void onReceive(Entity entity);
@@ -465,6 +508,12 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     protected abstract void onClose();
     protected abstract void onNameChanged();
     protected abstract void onDestinationChanged();
+
+    private void destinationChanged() {
+        updateWarmup();
+        ChatRoutes.invalidate();
+        onDestinationChanged();
+    }
     protected abstract void onSave(TypeMap conf);
 
     protected abstract void calculateCenter();
@@ -505,12 +554,14 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             String originName = origin.getFullName();
             if (incoming.contains(originName)) return;
             incoming.add(originName);
+            Gates.linksChanged(this);
             dirty = true;
         }
 
         // 2 new
         portalOpen = true;
         portalOpenTime = System.currentTimeMillis();
+        dirty = true;
 
         onOpen();
 
@@ -520,7 +571,8 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
                 outgoing = null;
             else
                 outgoing = getLinks().get(0);
-            onDestinationChanged();
+            dirty = true;
+            destinationChanged();
         }
         if (outgoing != null) {
             GateImpl gate = Gates.get(outgoing);
@@ -546,6 +598,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         if (! incoming.contains(originName)) return;
 
         incoming.remove(originName);
+        Gates.linksChanged(this);
         dirty = true;
         closeIfAllowed();
     }
@@ -553,7 +606,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     // End interfaces and implementations
 
     public void onRenameComplete() {
-        file.delete();
+        GateWriter.delete(file);
         generateFile();
         save(true);
         onNameChanged();
@@ -564,19 +617,22 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             onAdd();
         else {
             if ((outgoing != null) && outgoing.equals(gate.getFullName()))
-                onDestinationChanged();
+                destinationChanged();
         }
     }
 
     public void onGateRemoved(GateImpl gate) {
-        if (gate == this)
+        if (gate == this) {
+            releaseWarmup();
             onRemove();
-        else {
+        } else {
             String gateName = gate.getFullName();
             if (gateName.equals(outgoing)) {
                 //outgoing = null;
                 //dirty = true;
-                onDestinationChanged();
+                destinationChanged();
+                // it's still registered until we return
+                releaseWarmup();
             }
             closeIfAllowed();
         }
@@ -590,10 +646,11 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         if (gateName.equals(outgoing)) {
             outgoing = null;
             dirty = true;
-            onDestinationChanged();
+            destinationChanged();
         }
         if (incoming.contains(gateName)) {
             incoming.remove(gateName);
+            Gates.linksChanged(this);
             dirty = true;
         }
         closeIfAllowed();
@@ -609,21 +666,19 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         if (oldFullName.equals(outgoing)) {
             outgoing = newName;
             dirty = true;
-            onDestinationChanged();
+            destinationChanged();
         }
         if (incoming.contains(oldFullName)) {
             incoming.remove(oldFullName);
             incoming.add(newName);
             dirty = true;
         }
+        Gates.linksChanged(this);
     }
 
     public void destroy(boolean unbuild) {
         close();
-        if (! file.delete())
-            Utils.warning("unable to delete gate file %s", file.getAbsolutePath());
-        else
-            Utils.info("deleted gate file %s", file.getAbsolutePath());
+        GateWriter.delete(file);
         file = null;
         onDestroy(unbuild);
     }
@@ -660,9 +715,10 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
         portalOpen = true;
         portalOpenTime = System.currentTimeMillis();
+        dirty = true;
         gate.attach(this);
         onOpen();
-        onDestinationChanged();
+        destinationChanged();
 
         if (duration > 0) {
             final LocalGateImpl myself = this;
@@ -678,11 +734,13 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     public void close() {
         if (! portalOpen) return;
         portalOpen = false;
+        dirty = true;
 
         ReservationImpl.removeCountdowns(this);
         incoming.clear();
+        Gates.linksChanged(this);
         onClose();
-        onDestinationChanged();
+        destinationChanged();
 
         // try to detach from our destination
         if (outgoing != null) {
@@ -692,6 +750,10 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         }
     }
 
+    public boolean isDirty() {
+        return dirty;
+    }
+
     @Override
     public void save(boolean force) {
         if ((! dirty) && (! force)) return;
@@ -717,7 +779,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         conf.set("linkServerFormat", linkServerFormat);
 
         conf.set("multiLink", multiLink);
-        conf.set("links", links);
+        conf.set("links", new ArrayList<String>(links));
         conf.set("pins", new ArrayList<String>(pins));
         conf.set("bannedItems", new ArrayList<String>(bannedItems));
         conf.set("allowedItems", new ArrayList<String>(allowedItems));
@@ -780,10 +842,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
         onSave(conf);
 
-        File parent = file.getParentFile();
-        if (! parent.exists())
-            parent.mkdirs();
-        conf.save();
+        GateWriter.write(file, conf);
     }
 
     protected void validate() throws GateException {
@@ -1035,6 +1094,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     public void setSendChat(boolean b) {
         sendChat = b;
         dirty = true;
+        ChatRoutes.invalidate();
     }
 
     @Override
@@ -1044,16 +1104,19 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
     @Override
     public void setSendChatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         sendChatFilter = s;
+        sendChatPattern = p;
+        ChatRoutes.invalidate();
     }
 
     @Override
@@ -1063,16 +1126,19 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
     @Override
     public void setSendChatFormatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         sendChatFormatFilter = s;
+        sendChatFormatPattern = p;
+        ChatRoutes.invalidate();
     }
 
     @Override
@@ -1084,6 +1150,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     public void setSendChatDistance(int i) {
         sendChatDistance = i;
         dirty = true;
+        ChatRoutes.invalidate();
     }
 
     @Override
@@ -1104,16 +1171,18 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
     @Override
     public void setReceiveChatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         receiveChatFilter = s;
+        receiveChatPattern = p;
     }
 
     @Override
@@ -1383,9 +1452,11 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         boolean old = hidden;
         hidden = b;
         dirty = dirty || (old != hidden);
-        if (old != hidden)
+        if (old != hidden) {
+            Revisions.gateChanged(getLocalName(), false);
             for (Server server : Servers.getAll())
                 server.sendRefreshData();
+        }
     }
 
     @Override
@@ -1615,20 +1686,14 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     /* End options */
 
     public boolean canSendChat(String message, String format) {
-        if ((! sendChat) || (message == null)) return false;
-        if (sendChatFilter != null)
-            if (! Pattern.compile(sendChatFilter).matcher(message).find()) return false;
-        if (sendChatFormatFilter != null) {
-            if (format == null) return false;
-            if (! Pattern.compile(sendChatFormatFilter).matcher(format).find()) return false;
-        }
-        return true;
+        if (! sendChat) return false;
+        return Chat.matchesFilters(message, format, sendChatPattern, sendChatFormatPattern);
     }
 
     public boolean canReceiveChat(String message) {
         if ((! receiveChat) || (message == null)) return false;
-        if (receiveChatFilter == null) return true;
-        return Pattern.compile(receiveChatFilter).matcher(message).find();
+        if (receiveChatPattern == null) return true;
+        return receiveChatPattern.matcher(message).find();
     }
 
 
@@ -1658,6 +1723,13 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         return links.contains(link);
     }
 
+    // the full names of the gates this gate links to or has incoming connections from
+    Set<String> getLinkedGateNames() {
+        Set<String> names = new HashSet<String>(links);
+        names.addAll(incoming);
+        return names;
+    }
+
     public void addLink(Context ctx, String toGateName) throws TransporterException {
         Permissions.require(ctx.getPlayer(), "trp.gate.link.add." + getLocalName());
 
@@ -1721,9 +1793,10 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     protected boolean addLink(String link) {
         if (links.contains(link)) return false;
         links.add(link);
+        Gates.linksChanged(this);
         if (links.size() == 1)
             outgoing = link;
-        onDestinationChanged();
+        destinationChanged();
         dirty = true;
         return true;
     }
@@ -1743,9 +1816,10 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     protected boolean removeLink(String link) {
         if (! links.contains(link)) return false;
         links.remove(link);
+        Gates.linksChanged(this);
         if (link.equals(outgoing))
             outgoing = null;
-        onDestinationChanged();
+        destinationChanged();
         closeIfAllowed();
         dirty = true;
         return true;
@@ -1789,7 +1863,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             dirty = true;
         }
 
-        onDestinationChanged();
+        destinationChanged();
 
         // attach to the next gate
         if (portalOpen && (outgoing != null)) {
@@ -2133,16 +2207,32 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         if (! sendChat) return false;
         if (location.getWorld() != world) return false;
         if (sendChatDistance <= 0) return true;
-        Vector there = new Vector(location.getX(), location.getY(), location.getZ());
-        return (there.distance(center) <= sendChatDistance);
+        return isWithin(location, sendChatDistance);
     }
 
     public boolean isInChatReceiveProximity(Location location) {
         if (! receiveChat) return false;
         if (location.getWorld() != world) return false;
         if (receiveChatDistance <= 0) return true;
-        Vector there = new Vector(location.getX(), location.getY(), location.getZ());
-        return (there.distance(center) <= receiveChatDistance);
+        return isWithin(location, receiveChatDistance);
+    }
+
+    private boolean isWithin(Location location, int distance) {
+        if (center == null) return false;
+        double dx = location.getX() - center.getX();
+        double dy = location.getY() - center.getY();
+        double dz = location.getZ() - center.getZ();
+        return ((dx * dx) + (dy * dy) + (dz * dz)) <= ((double)distance * distance);
+    }
+
+    private static Pattern compileFilter(String s) {
+        if (s == null) return null;
+        try {
+            return Pattern.compile(s);
+        } catch (PatternSyntaxException e) {
+            Utils.warning("ignoring invalid chat filter '%s'", s);
+            return null;
+        }
     }
 
     protected void generateFile() {
@@ -2155,6 +2245,21 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         file = new File(gatesFolder, fileName);
     }
 
+    private void updateWarmup() {
+        GateImpl gate = (portalOpen && (outgoing != null)) ? Gates.get(outgoing) : null;
+        if ((gate == warmupGate) && (warmup != null)) return;
+        releaseWarmup();
+        if (! (gate instanceof LocalGateImpl)) return;
+        warmupGate = (LocalGateImpl)gate;
+        warmup = ChunkWarmup.holdSpawn(warmupGate, 0);
+    }
+
+    private void releaseWarmup() {
+        if (warmup != null) warmup.release();
+        warmup = null;
+        warmupGate = null;
+    }
+
     private void closeIfAllowed() {
         if (! portalOpen) return;
         if (canClose()) close();
@@ -63,6 +63,11 @@ public final class LocalServerGateImpl extends LocalGateImpl implements LocalSer
         return null;
     }
 
+    @Override
+    public long[] getSpawnChunkKeys() {
+        return new long[0];
+    }
+
     @Override
     public void onSend(Entity entity) {}
 
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+/**
+ * A hash map with primitive long keys, for lookups on hot paths that
+ * shouldn't box their keys.
+ * <p>
+ * Uses open addressing with linear probing. Not thread safe.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class LongMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size = 0;
+
+    public LongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongMap(int capacity) {
+        int cap = MIN_CAPACITY;
+        while (cap < (capacity * 2)) cap <<= 1;
+        keys = new long[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return values[find(key)] != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V)values[find(key)];
+    }
+
+    // null values aren't allowed
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("value can't be null");
+        int i = find(key);
+        V old = (V)values[i];
+        keys[i] = key;
+        values[i] = value;
+        if (old == null) {
+            size++;
+            if ((size * 2) > keys.length) resize(keys.length << 1);
+        }
+        return old;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = find(key);
+        V old = (V)values[i];
+        if (old == null) return null;
+        values[i] = null;
+        size--;
+        // move back any entries that probed past the removed one
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) break;
+            int home = hash(keys[j]);
+            if ((j > i) ? ((home <= i) || (home > j)) : ((home <= i) && (home > j))) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+        return old;
+    }
+
+    public void clear() {
+        for (int i = 0; i < values.length; i++)
+            values[i] = null;
+        size = 0;
+    }
+
+    // the keys, in no particular order
+    public long[] keys() {
+        long[] out = new long[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null) out[n++] = keys[i];
+        return out;
+    }
+
+    private int find(long key) {
+        int i = hash(key);
+        while ((values[i] != null) && (keys[i] != key))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++)
+            if (oldValues[i] != null) {
+                int j = find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+    }
+
+}
@@ -26,17 +26,10 @@ import org.bukkit.event.player.AsyncPlayerChatEvent;
  */
 public class PlayerAsyncChatListenerImpl implements Listener {
 
+    // chat is routed on whichever thread the event is fired on
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
-    public void onPlayerChatAsync(final AsyncPlayerChatEvent event) {
-        if (event.isAsynchronous())
-            Utils.fire(new Runnable() {
-                @Override
-                public void run() {
-                    Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
-                }
-            });
-        else
-            Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
+    public void onPlayerChatAsync(AsyncPlayerChatEvent event) {
+        Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
     }
 
 }
@@ -322,8 +322,8 @@ public final class PlayerListenerImpl implements Listener {
 
  Utils.debug("teleported %s", Utils.blockCoords(location));
 
-        for (Server server : Servers.getAll())
-            server.sendPlayerChangeWorld(player);
+        Revisions.playerChanged(player.getName(), false);
+        Servers.sendPlayerChangeWorld(player);
     }
 
     @EventHandler(priority = EventPriority.NORMAL)
@@ -341,8 +341,9 @@ public final class PlayerListenerImpl implements Listener {
             r = null;
         }
 
-        for (Server server : Servers.getAll())
-            server.sendPlayerJoin(player, r != null);
+        Revisions.playerChanged(player.getName(), false);
+        Revisions.checkPlayer(player);
+        Servers.sendPlayerJoin(player, r != null);
         if (r == null) {
             LocalGateImpl gate = Gates.findGateForPortal(player.getLocation());
             if (gate != null)
@@ -362,8 +363,8 @@ public final class PlayerListenerImpl implements Listener {
         Player player = event.getPlayer();
         ReservationImpl r = ReservationImpl.get(player);
 
-        for (Server server : Servers.getAll())
-            server.sendPlayerQuit(player, r != null);
+        Revisions.playerChanged(player.getName(), true);
+        Servers.sendPlayerQuit(player, r != null);
         if (r != null)
             event.setQuitMessage(null);
     }
@@ -373,8 +374,8 @@ public final class PlayerListenerImpl implements Listener {
         Player player = event.getPlayer();
         ReservationImpl r = ReservationImpl.get(player);
 
-        for (Server server : Servers.getAll())
-            server.sendPlayerKick(player, r != null);
+        Revisions.playerChanged(player.getName(), true);
+        Servers.sendPlayerKick(player, r != null);
         if (r != null)
             event.setLeaveMessage(null);
     }
@@ -382,8 +383,7 @@ public final class PlayerListenerImpl implements Listener {
     @EventHandler(priority = EventPriority.NORMAL)
     public void onPlayerDeath(PlayerDeathEvent event) {
         Player player = (Player)event.getEntity();
-        for (Server server : Servers.getAll())
-            server.sendPlayerDeath(player);
+        Servers.sendPlayerDeath(player);
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
@@ -395,16 +395,8 @@ public final class PlayerListenerImpl implements Listener {
     // TODO: uncomment this when Tekkit goes to a 1.3.1, also remove PlayerAsyncChatListenerImpl
     /*
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
-    public void onPlayerChatAsync(final AsyncPlayerChatEvent event) {
-        if (event.isAsynchronous())
-            Utils.fire(new Runnable() {
-                @Override
-                public void run() {
-                    Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
-                }
-            });
-        else
-            Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
+    public void onPlayerChatAsync(AsyncPlayerChatEvent event) {
+        Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
     }
     */
 
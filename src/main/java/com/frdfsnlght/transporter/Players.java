@@ -15,9 +15,6 @@
  */
 package com.frdfsnlght.transporter;
 
-import com.frdfsnlght.transporter.api.RemotePlayer;
-import java.util.HashMap;
-import java.util.Map;
 import org.bukkit.GameMode;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
@@ -45,19 +42,7 @@ public final class Players {
     }
 
     public static RemotePlayerImpl findRemote(String name) {
-        Map<String,RemotePlayerImpl> players = new HashMap<String,RemotePlayerImpl>();
-        for (Server server : Servers.getAll())
-            for (RemotePlayer p : server.getRemotePlayers())
-                players.put(p.getName().toLowerCase(), (RemotePlayerImpl)p);
-        name = name.toLowerCase();
-        if (players.containsKey(name)) return players.get(name);
-        RemotePlayerImpl player = null;
-        for (String pname : players.keySet())
-            if (pname.startsWith(name)) {
-                if (player != null) return null;
-                player = players.get(pname);
-            }
-        return player;
+        return RemotePlayers.find(name);
     }
 
     public static void restore(Player player, TypeMap data) {
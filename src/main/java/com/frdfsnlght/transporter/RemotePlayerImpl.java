@@ -91,6 +91,10 @@ public final class RemotePlayerImpl implements RemotePlayer {
         this.suffix = suffix;
     }
 
+    public String getWorldName() {
+        return worldName;
+    }
+
     public void setWorld(String worldName) {
         if (worldName == null) throw new IllegalArgumentException("worldName is required");
         this.worldName = worldName;
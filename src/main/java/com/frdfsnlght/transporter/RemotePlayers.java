@@ -0,0 +1,142 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every player on every connected server, by name.
+ * <p>
+ * Servers add and remove their players here as they come and go, so finding
+ * a player by name or unique prefix doesn't have to look at every server.
+ * Names are kept sorted, which lets a prefix be resolved by looking at the
+ * first two names at or after it. Lookups and counts can be made from any
+ * thread.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class RemotePlayers {
+
+    private static final ConcurrentNavigableMap<String,RemotePlayerImpl> players = new ConcurrentSkipListMap<String,RemotePlayerImpl>();
+    private static final ConcurrentMap<Server,Counts> counts = new ConcurrentHashMap<Server,Counts>();
+
+    // called by the server when one of its players joins
+    static void add(RemotePlayerImpl player) {
+        players.put(player.getName().toLowerCase(), player);
+        Server server = (Server)player.getRemoteServer();
+        Counts c = counts.get(server);
+        if (c == null) {
+            c = new Counts();
+            Counts old = counts.putIfAbsent(server, c);
+            if (old != null) c = old;
+        }
+        c.add(player.getWorldName());
+    }
+
+    // called by the server when one of its players leaves
+    static void remove(RemotePlayerImpl player) {
+        // another server may have a player by the same name now
+        players.remove(player.getName().toLowerCase(), player);
+        Counts c = counts.get((Server)player.getRemoteServer());
+        if (c != null) c.remove(player.getWorldName());
+    }
+
+    // called by the server when one of its players changes worlds
+    static void setWorld(RemotePlayerImpl player, String worldName) {
+        String oldWorldName = player.getWorldName();
+        player.setWorld(worldName);
+        if (oldWorldName.equals(worldName)) return;
+        Counts c = counts.get((Server)player.getRemoteServer());
+        if (c == null) return;
+        c.remove(oldWorldName);
+        c.add(worldName);
+    }
+
+    // called by the server when it goes away
+    static void removeServer(Server server) {
+        counts.remove(server);
+    }
+
+    /**
+     * Returns the player with the given name, or the only player whose name
+     * starts with it.
+     *
+     * @param name the name or prefix, in any case
+     * @return the player, or null if there is no match or more than one
+     */
+    public static RemotePlayerImpl find(String name) {
+        name = name.toLowerCase();
+        RemotePlayerImpl player = players.get(name);
+        if (player != null) return player;
+        String first = players.ceilingKey(name);
+        if ((first == null) || (! first.startsWith(name))) return null;
+        String next = players.higherKey(first);
+        if ((next != null) && next.startsWith(name)) return null;
+        return players.get(first);
+    }
+
+    public static Collection<RemotePlayerImpl> getAll() {
+        return Collections.unmodifiableCollection(players.values());
+    }
+
+    public static int size() {
+        return players.size();
+    }
+
+    public static int getServerCount(Server server) {
+        Counts c = counts.get(server);
+        return (c == null) ? 0 : c.total.get();
+    }
+
+    public static int getWorldCount(Server server, String worldName) {
+        Counts c = counts.get(server);
+        if (c == null) return 0;
+        AtomicInteger n = c.worlds.get(worldName);
+        return (n == null) ? 0 : n.get();
+    }
+
+    private static final class Counts {
+
+        private final AtomicInteger total = new AtomicInteger();
+        private final ConcurrentMap<String,AtomicInteger> worlds = new ConcurrentHashMap<String,AtomicInteger>();
+
+        private void add(String worldName) {
+            total.incrementAndGet();
+            AtomicInteger n = worlds.get(worldName);
+            if (n == null) {
+                n = new AtomicInteger();
+                AtomicInteger old = worlds.putIfAbsent(worldName, n);
+                if (old != null) n = old;
+            }
+            n.incrementAndGet();
+        }
+
+        private void remove(String worldName) {
+            total.decrementAndGet();
+            AtomicInteger n = worlds.get(worldName);
+            if (n != null) n.decrementAndGet();
+        }
+
+    }
+
+}
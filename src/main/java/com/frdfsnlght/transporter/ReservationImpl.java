@@ -23,8 +23,9 @@ import com.frdfsnlght.transporter.api.event.EntityArriveEvent;
 import com.frdfsnlght.transporter.api.event.EntityDepartEvent;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.bukkit.GameMode;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -49,20 +50,20 @@ import org.bukkit.util.Vector;
  */
 public final class ReservationImpl implements Reservation {
 
-    private static final Map<Integer,Long> gateLocks = new HashMap<Integer,Long>();
+    private static final Map<Integer,GateLock> gateLocks = new HashMap<Integer,GateLock>();
     private static final Map<Integer,Countdown> countdowns = new HashMap<Integer,Countdown>();
+    private static final Map<LocalGateImpl,Set<Countdown>> gateCountdowns = new HashMap<LocalGateImpl,Set<Countdown>>();
 
     private static long nextId = 1;
     private static final Map<Long,ReservationImpl> reservations = new HashMap<Long,ReservationImpl>();
+    private static final Map<String,ReservationImpl> playerReservations = new HashMap<String,ReservationImpl>();
 
     public static ReservationImpl get(long id) {
         return reservations.get(id);
     }
 
     public static ReservationImpl get(String playerName) {
-        for (ReservationImpl r : reservations.values())
-            if (playerName.equals(r.playerName)) return r;
-        return null;
+        return playerReservations.get(playerName);
     }
 
     public static ReservationImpl get(Player player) {
@@ -71,6 +72,8 @@ public final class ReservationImpl implements Reservation {
 
     private static boolean put(ReservationImpl r) {
         if (reservations.put(r.localId, r) == null) {
+            if (r.playerName != null)
+                playerReservations.put(r.playerName, r);
             Utils.debug("put reservation %s", r.localId);
             return true;
         }
@@ -79,6 +82,16 @@ public final class ReservationImpl implements Reservation {
 
     private static boolean remove(ReservationImpl r) {
         if (reservations.remove(r.localId) != null) {
+            if ((r.playerName != null) && (playerReservations.get(r.playerName) == r))
+                playerReservations.remove(r.playerName);
+            if (r.timeout != null) {
+                r.timeout.cancel();
+                r.timeout = null;
+            }
+            if (r.warmup != null) {
+                r.warmup.release();
+                r.warmup = null;
+            }
             Utils.debug("removed reservation %s", r.localId);
             return true;
         }
@@ -87,12 +100,10 @@ public final class ReservationImpl implements Reservation {
 
     public static void removeGateLock(Entity entity) {
         if (entity == null) return;
-        Long expiry = gateLocks.get(entity.getEntityId());
-        if (expiry == null) return;
-        if (expiry <= System.currentTimeMillis()) {
-            gateLocks.remove(entity.getEntityId());
-            Utils.debug("removed gate lock for entity %d", entity.getEntityId());
-        }
+        GateLock lock = gateLocks.get(entity.getEntityId());
+        if ((lock == null) || (! lock.expired)) return;
+        gateLocks.remove(entity.getEntityId());
+        Utils.debug("removed gate lock for entity %d", entity.getEntityId());
     }
 
     public static boolean isGateLocked(Entity entity) {
@@ -102,7 +113,8 @@ public final class ReservationImpl implements Reservation {
 
     public static void addGateLock(Entity entity) {
         if (entity == null) return;
-        gateLocks.put(entity.getEntityId(), System.currentTimeMillis() + Config.getGateLockExpiration());
+        GateLock lock = gateLocks.put(entity.getEntityId(), new GateLock(entity));
+        if (lock != null) lock.timeout.cancel();
         Utils.debug("added gate lock for entity %d", entity.getEntityId());
     }
 
@@ -110,36 +122,43 @@ public final class ReservationImpl implements Reservation {
         if (entity == null) return;
         Countdown countdown = countdowns.get(entity.getEntityId());
         if (countdown == null) return;
-        countdowns.remove(entity.getEntityId());
         countdown.cancel();
         Utils.debug("removed countdown for entity %d", entity.getEntityId());
     }
 
     public static void removeCountdown(Countdown countdown) {
         if (countdown == null) return;
-        for (Iterator<Integer> i = countdowns.keySet().iterator(); i.hasNext(); ) {
-            int id = i.next();
-            if (countdowns.get(id) == countdown) {
-                i.remove();
-                Utils.debug("removed countdown for entity %d", countdown.getPlayer().getEntityId());
-            }
+        int id = countdown.getPlayer().getEntityId();
+        if (countdowns.get(id) == countdown) {
+            countdowns.remove(id);
+            Utils.debug("removed countdown for entity %d", id);
+        }
+        Set<Countdown> gc = gateCountdowns.get(countdown.getGate());
+        if (gc != null) {
+            gc.remove(countdown);
+            if (gc.isEmpty()) gateCountdowns.remove(countdown.getGate());
         }
     }
 
     public static void removeCountdowns(LocalGateImpl gate) {
-        for (Iterator<Integer> i = countdowns.keySet().iterator(); i.hasNext(); ) {
-            int id = i.next();
-            Countdown countdown = countdowns.get(id);
-            if (countdown.getGate() == gate) {
-                i.remove();
-                Utils.debug("removed countdown for entity %d", countdown.getPlayer().getEntityId());
-            }
-        }
+        Set<Countdown> gc = gateCountdowns.remove(gate);
+        if (gc == null) return;
+        for (Countdown countdown : gc)
+            countdown.cancel();
     }
 
     public static void addCountdown(Countdown countdown) {
         if (countdown == null) return;
+        Countdown old = countdowns.get(countdown.getPlayer().getEntityId());
+        if ((old != null) && (old != countdown))
+            old.cancel();
         countdowns.put(countdown.getPlayer().getEntityId(), countdown);
+        Set<Countdown> gc = gateCountdowns.get(countdown.getGate());
+        if (gc == null) {
+            gc = new HashSet<Countdown>();
+            gateCountdowns.put(countdown.getGate(), gc);
+        }
+        gc.add(countdown);
         Utils.debug("added countdown for entity %d", countdown.getPlayer().getEntityId());
     }
 
@@ -148,7 +167,38 @@ public final class ReservationImpl implements Reservation {
         return countdowns.containsKey(entity.getEntityId());
     }
 
+    // Locks an entity out of gates until it has been out of every portal
+    // after the lock expires. Entities that are gone, or that are out of
+    // any portal when it expires, are unlocked right away.
+    private static final class GateLock implements Runnable {
+
+        private final Entity entity;
+        private boolean expired = false;
+        private TickTimer.Timeout timeout;
+
+        private GateLock(Entity entity) {
+            this.entity = entity;
+            timeout = TickTimer.schedule(this, Config.getGateLockExpiration());
+        }
+
+        @Override
+        public void run() {
+            expired = true;
+            int id = entity.getEntityId();
+            if (gateLocks.get(id) != this) return;
+            if (entity.isDead() || (Gates.findGateForPortal(entity.getLocation()) == null)) {
+                gateLocks.remove(id);
+                Utils.debug("expired gate lock for entity %d", id);
+            } else
+                // still standing in a portal, check again later in case it never steps out
+                timeout = TickTimer.schedule(this, Config.getGateLockExpiration());
+        }
+
+    }
+
     private long localId = nextId++;
+    private TickTimer.Timeout timeout = null;
+    private ChunkWarmup.Hold warmup = null;
     private long remoteId = 0;
     private boolean departing = true;
 
@@ -272,7 +322,23 @@ public final class ReservationImpl implements Reservation {
         clientAddress = in.getString("clientAddress");
         fromLocation = new Location(null, in.getDouble("fromX"), in.getDouble("fromY"), in.getDouble("fromZ"), in.getFloat("fromYaw"), in.getFloat("fromPitch"));
         fromVelocity = new Vector(in.getDouble("velX"), in.getDouble("velY"), in.getDouble("velZ"));
-        inventory = Inventory.decodeItemStackArray(in.getMapList("inventory"));
+        if (in.containsKey("traveler")) {
+            Object traveler = in.get("traveler");
+            if (! (traveler instanceof byte[]))
+                throw new ReservationException("invalid traveler");
+            try {
+                TravelerSnapshot snapshot = TravelerSnapshot.decode((byte[])traveler);
+                inventory = snapshot.getInventory();
+                armor = snapshot.getArmor();
+                potionEffects = snapshot.getPotionEffects();
+            } catch (IllegalArgumentException e) {
+                throw new ReservationException("invalid traveler: %s", e.getMessage());
+            }
+        } else {
+            inventory = Inventory.decodeItemStackArray(in.getMapList("inventory"));
+            armor = Inventory.decodeItemStackArray(in.getMapList("armor"));
+            potionEffects = PotionEffects.decodePotionEffects(in.getMapList("potionEffects"));
+        }
         health = in.getInt("health");
         remainingAir = in.getInt("remainingAir");
         fireTicks = in.getInt("fireTicks");
@@ -281,10 +347,8 @@ public final class ReservationImpl implements Reservation {
         saturation = in.getFloat("saturation");
         gameMode = in.getString("gameMode");
         heldItemSlot = in.getInt("heldItemSlot");
-        armor = Inventory.decodeItemStackArray(in.getMapList("armor"));
         level = in.getInt("level");
         xp = in.getFloat("xp");
-        potionEffects = PotionEffects.decodePotionEffects(in.getMapList("potionEffects"));
 
         fromWorldName = in.getString("fromWorld");
 
@@ -448,7 +512,8 @@ public final class ReservationImpl implements Reservation {
             toServer = (Server)((RemoteGateImpl)toGate).getRemoteServer();
     }
 
-    public TypeMap encode() {
+    // snapshot says whether the traveler's items go in a compact snapshot
+    public TypeMap encode(boolean snapshot) {
         TypeMap out = new TypeMap();
         out.put("id", localId);
         out.put("entityType", entityType.toString());
@@ -465,7 +530,13 @@ public final class ReservationImpl implements Reservation {
         out.put("fromPitch", fromLocation.getPitch());
         out.put("fromYaw", fromLocation.getYaw());
         out.put("fromWorld", fromWorldName);
-        out.put("inventory", Inventory.encodeItemStackArray(inventory));
+        if (snapshot)
+            out.put("traveler", TravelerSnapshot.encode(inventory, armor, potionEffects));
+        else {
+            out.put("inventory", Inventory.encodeItemStackArray(inventory));
+            out.put("armor", Inventory.encodeItemStackArray(armor));
+            out.put("potionEffects", PotionEffects.encodePotionEffects(potionEffects));
+        }
         out.put("health", health);
         out.put("remainingAir", remainingAir);
         out.put("fireTicks", fireTicks);
@@ -474,10 +545,8 @@ public final class ReservationImpl implements Reservation {
         out.put("saturation", saturation);
         out.put("gameMode", gameMode);
         out.put("heldItemSlot", heldItemSlot);
-        out.put("armor", Inventory.encodeItemStackArray(armor));
         out.put("level", level);
         out.put("xp", xp);
-        out.put("potionEffects", PotionEffects.encodePotionEffects(potionEffects));
         out.put("fromGate", fromGateName);
         if (fromDirection != null)
             out.put("fromGateDirection", fromDirection.toString());
@@ -527,9 +596,10 @@ public final class ReservationImpl implements Reservation {
 
                     // setup delayed task to remove the reservation on this side if it doesn't work out
                     final ReservationImpl me = this;
-                    Utils.fireDelayed(new Runnable() {
+                    timeout = TickTimer.schedule(new Runnable() {
                         @Override
                         public void run() {
+                            timeout = null;
                             if (! remove(me)) return;
                             Utils.warning("reservation for %s to %s timed out", getTraveler(), getDestination());
                         }
@@ -578,11 +648,13 @@ public final class ReservationImpl implements Reservation {
                     Utils.warning("reservation arrival for %s to %s to %s failed:", getTraveler(), getDestination(), fromServer.getName(), e.getMessage());
                 }
             } else {
+                warmDestination();
                 // set up a delayed task to cancel the arrival if they never arrive
                 final ReservationImpl res = this;
-                Utils.fireDelayed(new Runnable() {
+                timeout = TickTimer.schedule(new Runnable() {
                     @Override
                     public void run() {
+                        timeout = null;
                         if (! remove(res)) return;
                         Utils.warning("reservation for %s to %s timed out", getTraveler(), getDestination());
                         try {
@@ -911,6 +983,17 @@ public final class ReservationImpl implements Reservation {
         }
     }
 
+    // starts loading the chunks the traveler will arrive in
+    private void warmDestination() {
+        if (toGateLocal != null)
+            warmup = ChunkWarmup.holdSpawn(toGateLocal, Config.getArrivalWindow());
+        else if (toWorld != null) {
+            Location loc = (toLocation == null) ? toWorld.getSpawnLocation() :
+                new Location(toWorld, toLocation.getX(), toLocation.getY(), toLocation.getZ());
+            warmup = ChunkWarmup.holdChunk(loc, Config.getArrivalWindow());
+        }
+    }
+
     private void prepareDestination() {
         if (toGateLocal != null) {
             toLocation = toGateLocal.getSpawnLocation(fromLocation, fromDirection);
@@ -932,6 +1015,7 @@ public final class ReservationImpl implements Reservation {
             toVelocity = fromVelocity.clone();
         }
         if (toLocation != null) {
+            ChunkWarmup.recordArrival(toLocation);
             Utils.prepareChunk(toLocation);
 
             // tweak velocity so we don't get buried in a block
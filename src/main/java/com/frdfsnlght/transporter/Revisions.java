@@ -0,0 +1,178 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.bukkit.entity.Player;
+
+/**
+ * Keeps a revision number for every world, player and gate we tell other
+ * servers about, so a server that already knows our state only needs to be
+ * sent what changed since the last revision it saw.
+ * <p>
+ * Removed entities are remembered for a while so their removal can be sent
+ * too. A server that is further behind than that history gets everything.
+ * </p>
+ * <p>
+ * Only used from the main thread.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class Revisions {
+
+    public static enum Kind {
+        WORLD,
+        PLAYER,
+        GATE;
+    }
+
+    // how many removed entities to remember
+    private static final int HISTORY_SIZE = 1024;
+
+    // revisions only mean something until the plugin is reloaded
+    private static final String epoch = UUID.randomUUID().toString();
+
+    private static final Map<String,Entry> entries = new HashMap<String,Entry>();
+    private static long revision = 0;
+    private static long minRevision = 0;
+    private static int removedCount = 0;
+
+    // a hash of the display name, prefix and suffix of each online player
+    private static final Map<String,Integer> playerDetails = new HashMap<String,Integer>();
+
+    public static String getEpoch() {
+        return epoch;
+    }
+
+    public static long getRevision() {
+        return revision;
+    }
+
+    public static void worldChanged(String name, boolean removed) {
+        changed(Kind.WORLD, name, removed);
+    }
+
+    public static void playerChanged(String name, boolean removed) {
+        if (removed) playerDetails.remove(name);
+        changed(Kind.PLAYER, name, removed);
+    }
+
+    // Nothing tells us when a display name, prefix or suffix changes, so
+    // the online players are checked before changes are collected.
+    public static void checkPlayers() {
+        for (Player player : Global.plugin.getServer().getOnlinePlayers())
+            checkPlayer(player);
+    }
+
+    // counts the player as changed if their details did since the last check
+    public static void checkPlayer(Player player) {
+        int hash = player.getDisplayName().hashCode();
+        String prefix = Chat.getPrefix(player);
+        hash = (31 * hash) + ((prefix == null) ? 0 : prefix.hashCode());
+        String suffix = Chat.getSuffix(player);
+        hash = (31 * hash) + ((suffix == null) ? 0 : suffix.hashCode());
+        Integer old = playerDetails.put(player.getName(), hash);
+        if ((old != null) && (old.intValue() != hash))
+            changed(Kind.PLAYER, player.getName(), false);
+    }
+
+    public static void gateChanged(String name, boolean removed) {
+        changed(Kind.GATE, name, removed);
+    }
+
+    // true if the changes since the revision are all still known
+    public static boolean hasChangesSince(String epoch, long since) {
+        return Revisions.epoch.equals(epoch) &&
+               (since >= minRevision) &&
+               (since <= revision);
+    }
+
+    public static List<Entry> getChangesSince(long since) {
+        List<Entry> changes = new ArrayList<Entry>();
+        for (Entry entry : entries.values())
+            if (entry.revision > since)
+                changes.add(entry);
+        return changes;
+    }
+
+    private static void changed(Kind kind, String name, boolean removed) {
+        String key = kind + ":" + name;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(kind, name);
+            entries.put(key, entry);
+        } else if (entry.removed)
+            removedCount--;
+        entry.revision = ++revision;
+        entry.removed = removed;
+        if (removed) {
+            removedCount++;
+            if (removedCount > HISTORY_SIZE) prune();
+        }
+    }
+
+    // forgets the oldest half of the removed entities
+    private static void prune() {
+        List<Entry> removed = new ArrayList<Entry>(removedCount);
+        for (Entry entry : entries.values())
+            if (entry.removed) removed.add(entry);
+        Collections.sort(removed, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return (a.revision < b.revision) ? -1 : ((a.revision == b.revision) ? 0 : 1);
+            }
+        });
+        for (Entry entry : removed.subList(0, removed.size() / 2)) {
+            entries.remove(entry.kind + ":" + entry.name);
+            minRevision = Math.max(minRevision, entry.revision);
+            removedCount--;
+        }
+    }
+
+    public static final class Entry {
+
+        private final Kind kind;
+        private final String name;
+        private long revision;
+        private boolean removed;
+
+        private Entry(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isRemoved() {
+            return removed;
+        }
+
+    }
+
+}
@@ -35,8 +35,11 @@ import com.frdfsnlght.transporter.api.event.RemotePlayerKickEvent;
 import com.frdfsnlght.transporter.api.event.RemotePlayerQuitEvent;
 import com.frdfsnlght.transporter.api.event.RemoteServerConnectEvent;
 import com.frdfsnlght.transporter.api.event.RemoteServerDisconnectEvent;
+import com.frdfsnlght.transporter.compatibility.TabList;
 import com.frdfsnlght.transporter.net.Connection;
+import com.frdfsnlght.transporter.net.EncodedMessage;
 import com.frdfsnlght.transporter.net.Network;
+import com.frdfsnlght.transporter.net.Requests;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -49,6 +52,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import org.bukkit.ChatColor;
@@ -69,6 +73,8 @@ public final class Server implements OptionsListener, RemoteServer {
 
     private static final int SEND_KEEPALIVE_INTERVAL = 60000;
     private static final int RECV_KEEPALIVE_INTERVAL = 90000;
+    // how long kept remote state outlives the next reconnect attempt
+    private static final int STALE_SYNC_GRACE = 15000;
 
     private static final Set<String> OPTIONS = new HashSet<String>();
     private static final Map<String,Method> MESSAGE_HANDLERS = new HashMap<String,Method>();
@@ -181,8 +187,11 @@ public final class Server implements OptionsListener, RemoteServer {
 
     // Regular expressions that must match chat messages in order to send or receive
     private String sendChatFilter = null;
+    private Pattern sendChatPattern = null;
     private String sendChatFormatFilter = null;
+    private Pattern sendChatFormatPattern = null;
     private String receiveChatFilter = null;
+    private Pattern receiveChatPattern = null;
 
     // Should all player join/quit/kick messages from the remote server be echoed to local users?
     private boolean announcePlayers = false;
@@ -210,10 +219,29 @@ public final class Server implements OptionsListener, RemoteServer {
     private Map<String,RemoteWorldImpl> remoteWorlds = new HashMap<String,RemoteWorldImpl>();
     private Map<String,RemoteGateImpl> remoteGates = new HashMap<String,RemoteGateImpl>();
 
-    private long nextRequestId = 1;
-    private Map<Long,Callback<TypeMap>> requests = new HashMap<Long,Callback<TypeMap>>();
-
-    // TODO: add a way to expire old API requests
+    // The remote server's revision we last synchronized with. Its worlds,
+    // players and gates are unregistered on a disconnect but kept here, so
+    // a reconnect can register them again and apply only the changes since.
+    private String syncEpoch = null;
+    private long syncRevision = -1;
+    private boolean syncStale = false;
+    private int syncStaleTask = -1;
+    private Map<String,RemotePlayerImpl> stalePlayers = null;
+    private Map<String,RemoteWorldImpl> staleWorlds = null;
+    private Map<String,RemoteGateImpl> staleGates = null;
+
+    // our revision the remote server was last sent on this connection
+    private long sentRevision = -1;
+
+    // messages waiting for the next flush, see sendMessage
+    private final List<EncodedMessage> outbound = new ArrayList<EncodedMessage>();
+    private boolean flushScheduled = false;
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong messagesCoalesced = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    private final Requests requests = new Requests();
 
     public Server(String name, String plgAddr, String key) throws ServerException {
         try {
@@ -439,6 +467,7 @@ public final class Server implements OptionsListener, RemoteServer {
         if ((key == null) || key.isEmpty())
             throw new IllegalArgumentException("key is required");
         this.key = key;
+        Servers.keysChanged();
     }
 
     @Override
@@ -509,6 +538,7 @@ public final class Server implements OptionsListener, RemoteServer {
     @Override
     public void setSendChat(boolean b) {
         sendChat = b;
+        ChatRoutes.invalidate();
     }
 
     @Override
@@ -518,16 +548,19 @@ public final class Server implements OptionsListener, RemoteServer {
 
     @Override
     public void setSendChatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         sendChatFilter = s;
+        sendChatPattern = p;
+        ChatRoutes.invalidate();
     }
 
     @Override
@@ -537,16 +570,19 @@ public final class Server implements OptionsListener, RemoteServer {
 
     @Override
     public void setSendChatFormatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         sendChatFormatFilter = s;
+        sendChatFormatPattern = p;
+        ChatRoutes.invalidate();
     }
 
     @Override
@@ -566,16 +602,18 @@ public final class Server implements OptionsListener, RemoteServer {
 
     @Override
     public void setReceiveChatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         receiveChatFilter = s;
+        receiveChatPattern = p;
     }
 
     @Override
@@ -726,6 +764,22 @@ public final class Server implements OptionsListener, RemoteServer {
         return remoteBungeeServer;
     }
 
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getMessagesCoalesced() {
+        return messagesCoalesced.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
     @Override
     public TransferMethod getTransferMethod() {
         if ((remoteCluster != null) &&
@@ -857,10 +911,8 @@ public final class Server implements OptionsListener, RemoteServer {
     public void refresh() {
         if (! isConnectionConnected())
             connect();
-        else {
-            TypeMap message = createMessage("refresh");
-            sendMessage(message);
-        }
+        else
+            sendRefresh();
     }
 
     public void checkKeepAlive() {
@@ -881,10 +933,13 @@ public final class Server implements OptionsListener, RemoteServer {
         remoteVersion = version;
         cancelOutbound();
         Utils.info("connected to '%s' (%s), running v%s", getName(), connection.getName(), remoteVersion);
-        Utils.fire(new Runnable() {
+        Utils.fireQueued(new Runnable() {
             @Override
             public void run() {
-                receiveRefresh(null);
+                if (supportsRevisions())
+                    sendRefresh();
+                else
+                    receiveRefresh(null);
             }
         });
     }
@@ -896,28 +951,35 @@ public final class Server implements OptionsListener, RemoteServer {
         }
         readyForAPI = false;
         connection = null;
-        if (Network.isStopped()) {
-            Gates.removeGatesForServer(this);
-            clearRemotePlayers();
-            remoteGates.clear();
-            remoteWorlds.clear();
-        } else {
+        sentRevision = -1;
+        requests.failAll("disconnected");
+        if (Network.isStopped())
+            clearRemoteState();
+        else {
             reconnect();
             final Server me = this;
-            Utils.fire(new Runnable() {
+            final boolean keepState = allowReconnect;
+            Utils.fireQueued(new Runnable() {
                 @Override
                 public void run() {
                     RemoteServerDisconnectEvent event = new RemoteServerDisconnectEvent(me);
                     Global.plugin.getServer().getPluginManager().callEvent(event);
-                    Gates.removeGatesForServer(me);
-                    clearRemotePlayers();
-                    remoteGates.clear();
-                    remoteWorlds.clear();
+                    if (keepState && (syncEpoch != null))
+                        keepRemoteState();
+                    else
+                        clearRemoteState();
                 }
             });
         }
     }
 
+    // called from a worker thread
+    public void onMessagesSent(int messages, int frames, long saved) {
+        messagesSent.addAndGet(messages);
+        framesSent.addAndGet(frames);
+        bytesSaved.addAndGet(saved);
+    }
+
     public void onMessage(final TypeMap message) {
         String error = message.getString("error");
         if (error != null) {
@@ -931,7 +993,7 @@ public final class Server implements OptionsListener, RemoteServer {
             return;
         }
         Utils.debug("received command '%s' from %s", command, getName());
-        Utils.fire(new Runnable() {
+        Utils.fireQueued(new Runnable() {
             @Override
             public void run() {
                 receiveMessage(message, command);
@@ -939,21 +1001,23 @@ public final class Server implements OptionsListener, RemoteServer {
         });
     }
 
+    Pattern getSendChatPattern() {
+        return sendChatPattern;
+    }
+
+    Pattern getSendChatFormatPattern() {
+        return sendChatFormatPattern;
+    }
+
     public boolean canSendChat(String message, String format) {
-        if ((! sendChat) || (message == null)) return false;
-        if (sendChatFilter != null)
-            if (! Pattern.compile(sendChatFilter).matcher(message).find()) return false;
-        if (sendChatFormatFilter != null) {
-            if (format == null) return false;
-            if (! Pattern.compile(sendChatFormatFilter).matcher(format).find()) return false;
-        }
-        return true;
+        if (! sendChat) return false;
+        return Chat.matchesFilters(message, format, sendChatPattern, sendChatFormatPattern);
     }
 
     public boolean canReceiveChat(String message) {
         if ((! receiveChat) || (message == null)) return false;
-        if (receiveChatFilter == null) return true;
-        return Pattern.compile(receiveChatFilter).matcher(message).find();
+        if (receiveChatPattern == null) return true;
+        return receiveChatPattern.matcher(message).find();
     }
 
     // Remote commands
@@ -1038,7 +1102,7 @@ public final class Server implements OptionsListener, RemoteServer {
         if (! isConnectionConnected())
             throw new ServerException("server '%s' is offline", name);
         TypeMap message = createMessage("reservation");
-        message.put("reservation", res.encode());
+        message.put("reservation", res.encode(supportsTravelerSnapshots()));
         sendMessage(message);
     }
 
@@ -1075,17 +1139,14 @@ public final class Server implements OptionsListener, RemoteServer {
         sendMessage(message);
     }
 
-    public void sendChat(Player player, String msg, Set<RemoteGateImpl> toGates) {
+    // can be called from any thread, toGates are local names on the remote server
+    public void sendChat(Player player, String msg, Set<String> toGates) {
         if (! isConnectionConnected()) return;
         TypeMap message = createMessage("chat");
         message.put("player", player.getName());
         message.put("message", msg);
-        if (toGates != null) {
-            List<String> gates = new ArrayList<String>(toGates.size());
-            for (RemoteGateImpl gate : toGates)
-                gates.add(gate.getLocalName());
-            message.put("toGates", gates);
-        }
+        if (toGates != null)
+            message.put("toGates", new ArrayList<String>(toGates));
         sendMessage(message);
     }
 
@@ -1125,18 +1186,18 @@ public final class Server implements OptionsListener, RemoteServer {
         sendMessage(message);
     }
 
-    public void sendPlayerChangeWorld(Player player) {
-        if (! isConnectionConnected()) return;
+    // Messages about local players go to every server, see Servers.
+
+    static TypeMap createPlayerChangeWorld(Player player) {
         TypeMap message = createMessage("playerChangeWorld");
         message.put("player", player.getName());
         message.put("world", player.getWorld().getName());
         message.put("prefix", Chat.getPrefix(player));
         message.put("suffix", Chat.getSuffix(player));
-        sendMessage(message);
+        return message;
     }
 
-    public void sendPlayerJoin(Player player, boolean hasReservation) {
-        if (! isConnectionConnected()) return;
+    static TypeMap createPlayerJoin(Player player, boolean hasReservation) {
         TypeMap message = createMessage("playerJoin");
         message.put("name", player.getName());
         message.put("displayName", player.getDisplayName());
@@ -1144,32 +1205,27 @@ public final class Server implements OptionsListener, RemoteServer {
         message.put("hasReservation", hasReservation);
         message.put("prefix", Chat.getPrefix(player));
         message.put("suffix", Chat.getSuffix(player));
-        sendMessage(message);
-
-        sendRemotePlayers(player);
+        return message;
     }
 
-    public void sendPlayerQuit(Player player, boolean hasReservation) {
-        if (! isConnectionConnected()) return;
+    static TypeMap createPlayerQuit(Player player, boolean hasReservation) {
         TypeMap message = createMessage("playerQuit");
         message.put("name", player.getName());
         message.put("hasReservation", hasReservation);
-        sendMessage(message);
+        return message;
     }
 
-    public void sendPlayerKick(Player player, boolean hasReservation) {
-        if (! isConnectionConnected()) return;
+    static TypeMap createPlayerKick(Player player, boolean hasReservation) {
         TypeMap message = createMessage("playerKick");
         message.put("name", player.getName());
         message.put("hasReservation", hasReservation);
-        sendMessage(message);
+        return message;
     }
 
-    public void sendPlayerDeath(Player player) {
-        if (! isConnectionConnected()) return;
+    static TypeMap createPlayerDeath(Player player) {
         TypeMap message = createMessage("playerDeath");
         message.put("name", player.getName());
-        sendMessage(message);
+        return message;
     }
 
     public void sendPrivateMessage(Player fromPlayer, RemotePlayer toPlayer, String msg) {
@@ -1187,7 +1243,7 @@ public final class Server implements OptionsListener, RemoteServer {
             cb.onFailure(new RemoteException("not connected"));
             return;
         }
-        final long rid = nextRequestId++;
+        long rid = requests.add(cb, APIBackend.getTimeout());
         TypeMap out = createMessage("apiRequest");
         out.put("requestId", rid);
         out.put("target", target);
@@ -1195,21 +1251,7 @@ public final class Server implements OptionsListener, RemoteServer {
         out.put("args", args);
         Utils.debug("api request to %s: %s", name, out);
         cb.setRequestId(rid);
-        requests.put(rid, cb);
         sendMessage(out);
-
-        // setup delayed task to timeout the request on this side if we don't get a response
-        Utils.fireDelayed(new Runnable() {
-            @Override
-            public void run() {
-                Callback<TypeMap> cb = requests.remove(rid);
-                if (cb != null) {
-                    cb.onFailure(new RemoteException("timeout"));
-                    Utils.debug("api request %s to %s timed out", rid, name);
-                }
-            }
-        }, APIBackend.getTimeout());
-
     }
 
     public void sendWorldLoad(World world) {
@@ -1292,35 +1334,81 @@ public final class Server implements OptionsListener, RemoteServer {
                     normalizedPrivateAddress.getAddress().getHostAddress() + ":" +
                     normalizedPrivateAddress.getPort());
 
-        // worlds
-        List<String> worlds = new ArrayList<String>();
-        for (World world : Global.plugin.getServer().getWorlds())
-            worlds.add(world.getName());
-        out.put("worlds", worlds);
-
-        // players
-        List<TypeMap> players = new ArrayList<TypeMap>();
-        for (Player player : Global.plugin.getServer().getOnlinePlayers()) {
-            TypeMap msg = new TypeMap();
-            msg.put("name", player.getName());
-            msg.put("displayName", player.getDisplayName());
-            msg.put("worldName", player.getWorld().getName());
-            msg.put("prefix", Chat.getPrefix(player));
-            msg.put("suffix", Chat.getSuffix(player));
-            players.add(msg);
+        // only send what changed if the remote server already has the rest
+        long since = -1;
+        if (supportsRevisions()) {
+            Revisions.checkPlayers();
+            if (message != null) {
+                long revision = message.getLong("revision", -1);
+                if (Revisions.hasChangesSince(message.getString("epoch"), revision))
+                    since = revision;
+            } else if ((sentRevision != -1) && Revisions.hasChangesSince(Revisions.getEpoch(), sentRevision))
+                since = sentRevision;
+            out.put("epoch", Revisions.getEpoch());
+            out.put("revision", Revisions.getRevision());
+            sentRevision = Revisions.getRevision();
         }
-        out.put("players", players);
 
-        // gates
-        List<TypeMap> gates = new ArrayList<TypeMap>();
-        for (LocalGateImpl gate : Gates.getLocalGates()) {
-            TypeMap gm = new TypeMap();
-            gm.put("type", gate.getType().toString());
-            gm.put("name", gate.getLocalName());
-            gm.put("hidden", gate.getHidden());
-            gates.add(gm);
+        if (since == -1) {
+            // worlds
+            List<String> worlds = new ArrayList<String>();
+            for (World world : Global.plugin.getServer().getWorlds())
+                worlds.add(world.getName());
+            out.put("worlds", worlds);
+
+            // players
+            List<TypeMap> players = new ArrayList<TypeMap>();
+            for (Player player : Global.plugin.getServer().getOnlinePlayers())
+                players.add(encodePlayer(player));
+            out.put("players", players);
+
+            // gates
+            List<TypeMap> gates = new ArrayList<TypeMap>();
+            for (LocalGateImpl gate : Gates.getLocalGates())
+                gates.add(encodeGate(gate));
+            out.put("gates", gates);
+
+        } else {
+            out.put("since", since);
+            List<String> worlds = new ArrayList<String>();
+            List<String> removedWorlds = new ArrayList<String>();
+            List<TypeMap> players = new ArrayList<TypeMap>();
+            List<String> removedPlayers = new ArrayList<String>();
+            List<TypeMap> gates = new ArrayList<TypeMap>();
+            List<String> removedGates = new ArrayList<String>();
+            for (Revisions.Entry entry : Revisions.getChangesSince(since)) {
+                String entryName = entry.getName();
+                switch (entry.getKind()) {
+                    case WORLD:
+                        World world = entry.isRemoved() ? null : Global.plugin.getServer().getWorld(entryName);
+                        if (world == null)
+                            removedWorlds.add(entryName);
+                        else
+                            worlds.add(world.getName());
+                        break;
+                    case PLAYER:
+                        Player player = entry.isRemoved() ? null : Global.plugin.getServer().getPlayerExact(entryName);
+                        if (player == null)
+                            removedPlayers.add(entryName);
+                        else
+                            players.add(encodePlayer(player));
+                        break;
+                    case GATE:
+                        GateImpl gate = entry.isRemoved() ? null : Gates.get(entryName);
+                        if (gate instanceof LocalGateImpl)
+                            gates.add(encodeGate((LocalGateImpl)gate));
+                        else
+                            removedGates.add(entryName);
+                        break;
+                }
+            }
+            out.put("worlds", worlds);
+            out.put("removedWorlds", removedWorlds);
+            out.put("players", players);
+            out.put("removedPlayers", removedPlayers);
+            out.put("gates", gates);
+            out.put("removedGates", removedGates);
         }
-        out.put("gates", gates);
 
         sendMessage(out);
     }
@@ -1345,63 +1433,25 @@ public final class Server implements OptionsListener, RemoteServer {
         remotePrivateAddress = message.getString("privateAddress");
         Utils.debug("received privateAddress '%s' from '%s'", remotePrivateAddress, getName());
 
-        // worlds
-        Collection<String> worlds = message.getStringList("worlds");
-        if (worlds == null)
-            throw new ServerException("world list required");
-        remoteWorlds.clear();
-        for (String worldName : worlds) {
-            try {
-                RemoteWorldImpl world = new RemoteWorldImpl(this, worldName);
-                remoteWorlds.put(world.getName(), world);
-            } catch (IllegalArgumentException iae) {
-                Utils.warning("received bad world from '%s'", getName());
-            }
-        }
-        Utils.debug("received %d worlds from '%s'", remoteWorlds.size(), getName());
-
-        // players
-        Collection<TypeMap> players = message.getMapList("players");
-        if (players == null)
-            throw new ServerException("player list required");
-        clearRemotePlayers();
-        for (TypeMap msg : players) {
-            try {
-                RemotePlayerImpl player = new RemotePlayerImpl(this, msg.getString("name"), msg.getString("displayName"), msg.getString("worldName"), msg.getString("prefix"), msg.getString("suffix"));
-                addRemotePlayer(player);
-            } catch (IllegalArgumentException iae) {
-                Utils.warning("received bad player from '%s'", getName());
-            }
-        }
-        Utils.debug("received %d players from '%s'", remotePlayers.size(), getName());
-
-        // gates
-        Collection<TypeMap> gates = message.getMapList("gates");
-        if (gates == null)
-            throw new ServerException("gate list required");
-        remoteGates.clear();
-        Gates.removeGatesForServer(this);
-        for (TypeMap gm : gates) {
-            try {
-                String gTypeStr = gm.getString("type");
-                GateType gType = Utils.valueOf(GateType.class, gTypeStr);
-                String gName = gm.getString("name");
-                boolean gHidden = gm.getBoolean("hidden");
-                RemoteGateImpl gate = RemoteGateImpl.create(this, gType, gName, gHidden);
-                remoteGates.put(gate.getLocalName(), gate);
-                try {
-                    Gates.add(gate, false);
-                } catch (GateException ge) {
-                    remoteGates.remove(gate.getLocalName());
-                    throw new IllegalArgumentException();
-                }
-            } catch (GateException ge) {
-                Utils.warning("received bad gate from '%s'", getName());
-            } catch (IllegalArgumentException iae) {
-                Utils.warning("received bad gate from '%s'", getName());
+        if (message.get("since") == null) {
+            dropKeptRemoteState();
+            loadSyncState(message);
+        } else {
+            long since = message.getLong("since");
+            if ((syncEpoch == null) ||
+                (! syncEpoch.equals(message.getString("epoch"))) ||
+                (since > syncRevision)) {
+                Utils.debug("received unusable changes from '%s', requesting everything", getName());
+                dropKeptRemoteState();
+                syncEpoch = null;
+                sendRefresh();
+                return;
             }
+            restoreRemoteState();
+            applySyncChanges(message);
         }
-        Utils.debug("received %d gates from '%s'", remoteGates.size(), getName());
+        syncEpoch = message.getString("epoch");
+        syncRevision = message.getLong("revision", -1);
 
         if (! readyForAPI) {
             readyForAPI = true;
@@ -1698,7 +1748,7 @@ public final class Server implements OptionsListener, RemoteServer {
             throw new ServerException("missing world");
         RemotePlayerImpl player = remotePlayers.get(playerName);
         if (player == null) return;
-        player.setWorld(worldName);
+        RemotePlayers.setWorld(player, worldName);
         player.setPrefix(message.getString("prefix"));
         player.setSuffix(message.getString("suffix"));
         RemotePlayerChangeWorldEvent event = new RemotePlayerChangeWorldEvent(player);
@@ -1851,21 +1901,321 @@ public final class Server implements OptionsListener, RemoteServer {
 
     // Utility methods
 
-    private TypeMap createMessage(String command) {
+    // tells the remote server what we already have
+    private void sendRefresh() {
+        TypeMap message = createMessage("refresh");
+        if (syncEpoch != null) {
+            message.put("epoch", syncEpoch);
+            message.put("revision", syncRevision);
+        }
+        sendMessage(message);
+    }
+
+    private boolean supportsRevisions() {
+        Connection conn = connection;
+        return (conn != null) && conn.hasFeature(Connection.FEATURE_REVISIONS);
+    }
+
+    // snapshots are raw bytes, which only the binary codec carries
+    private boolean supportsTravelerSnapshots() {
+        Connection conn = connection;
+        return (conn != null) &&
+               conn.isBinaryCodec() &&
+               conn.hasFeature(Connection.FEATURE_TRAVELER_SNAPSHOTS);
+    }
+
+    private TypeMap encodePlayer(Player player) {
+        TypeMap msg = new TypeMap();
+        msg.put("name", player.getName());
+        msg.put("displayName", player.getDisplayName());
+        msg.put("worldName", player.getWorld().getName());
+        msg.put("prefix", Chat.getPrefix(player));
+        msg.put("suffix", Chat.getSuffix(player));
+        return msg;
+    }
+
+    private TypeMap encodeGate(LocalGateImpl gate) {
+        TypeMap gm = new TypeMap();
+        gm.put("type", gate.getType().toString());
+        gm.put("name", gate.getLocalName());
+        gm.put("hidden", gate.getHidden());
+        return gm;
+    }
+
+    // Unregisters the remote state after a disconnect but keeps a copy, so a
+    // reconnect only has to apply the changes since, unless the reconnect
+    // doesn't come soon enough.
+    private void keepRemoteState() {
+        if (syncStale) return;
+        syncStale = true;
+        stalePlayers = new HashMap<String,RemotePlayerImpl>(remotePlayers);
+        staleWorlds = new HashMap<String,RemoteWorldImpl>(remoteWorlds);
+        staleGates = new HashMap<String,RemoteGateImpl>(remoteGates);
+        unregisterRemoteState();
+        int timeout = Network.getReconnectInterval() + Network.getReconnectSkew() + STALE_SYNC_GRACE;
+        syncStaleTask = Utils.fireDelayed(new Runnable() {
+            @Override
+            public void run() {
+                syncStaleTask = -1;
+                // a reconnect that's waiting for its changes keeps it
+                if ((! syncStale) || isConnectionConnected()) return;
+                Utils.debug("dropping kept state for '%s'", getName());
+                clearRemoteState();
+            }
+        }, timeout);
+        Utils.debug("keeping state for '%s' for %d seconds", getName(), timeout / 1000);
+    }
+
+    // registers what was kept through a disconnect again
+    private void restoreRemoteState() {
+        if (! syncStale) return;
+        remoteWorlds.putAll(staleWorlds);
+        for (RemotePlayerImpl player : stalePlayers.values())
+            addRemotePlayer(player);
+        for (RemoteGateImpl gate : staleGates.values()) {
+            remoteGates.put(gate.getLocalName(), gate);
+            try {
+                Gates.add(gate, false);
+            } catch (GateException ge) {
+                remoteGates.remove(gate.getLocalName());
+            }
+        }
+        Utils.debug("restored %d worlds, %d players and %d gates for '%s'", staleWorlds.size(), stalePlayers.size(), staleGates.size(), getName());
+        dropKeptRemoteState();
+    }
+
+    private void dropKeptRemoteState() {
+        syncStale = false;
+        stalePlayers = null;
+        staleWorlds = null;
+        staleGates = null;
+        if (syncStaleTask != -1) {
+            Utils.cancelTask(syncStaleTask);
+            syncStaleTask = -1;
+        }
+    }
+
+    private void unregisterRemoteState() {
+        Gates.removeGatesForServer(this);
+        clearRemotePlayers();
+        remoteGates.clear();
+        remoteWorlds.clear();
+    }
+
+    private void clearRemoteState() {
+        dropKeptRemoteState();
+        syncEpoch = null;
+        syncRevision = -1;
+        unregisterRemoteState();
+    }
+
+    private void loadSyncState(TypeMap message) throws ServerException {
+        // worlds
+        Collection<String> worlds = message.getStringList("worlds");
+        if (worlds == null)
+            throw new ServerException("world list required");
+        remoteWorlds.clear();
+        for (String worldName : worlds) {
+            try {
+                RemoteWorldImpl world = new RemoteWorldImpl(this, worldName);
+                remoteWorlds.put(world.getName(), world);
+            } catch (IllegalArgumentException iae) {
+                Utils.warning("received bad world from '%s'", getName());
+            }
+        }
+        Utils.debug("received %d worlds from '%s'", remoteWorlds.size(), getName());
+
+        // players
+        Collection<TypeMap> players = message.getMapList("players");
+        if (players == null)
+            throw new ServerException("player list required");
+        clearRemotePlayers();
+        for (TypeMap msg : players) {
+            try {
+                RemotePlayerImpl player = new RemotePlayerImpl(this, msg.getString("name"), msg.getString("displayName"), msg.getString("worldName"), msg.getString("prefix"), msg.getString("suffix"));
+                addRemotePlayer(player);
+            } catch (IllegalArgumentException iae) {
+                Utils.warning("received bad player from '%s'", getName());
+            }
+        }
+        Utils.debug("received %d players from '%s'", remotePlayers.size(), getName());
+
+        // gates
+        Collection<TypeMap> gates = message.getMapList("gates");
+        if (gates == null)
+            throw new ServerException("gate list required");
+        remoteGates.clear();
+        Gates.removeGatesForServer(this);
+        for (TypeMap gm : gates) {
+            try {
+                String gTypeStr = gm.getString("type");
+                GateType gType = Utils.valueOf(GateType.class, gTypeStr);
+                String gName = gm.getString("name");
+                boolean gHidden = gm.getBoolean("hidden");
+                RemoteGateImpl gate = RemoteGateImpl.create(this, gType, gName, gHidden);
+                remoteGates.put(gate.getLocalName(), gate);
+                try {
+                    Gates.add(gate, false);
+                } catch (GateException ge) {
+                    remoteGates.remove(gate.getLocalName());
+                    throw new IllegalArgumentException();
+                }
+            } catch (GateException ge) {
+                Utils.warning("received bad gate from '%s'", getName());
+            } catch (IllegalArgumentException iae) {
+                Utils.warning("received bad gate from '%s'", getName());
+            }
+        }
+        Utils.debug("received %d gates from '%s'", remoteGates.size(), getName());
+    }
+
+    private void applySyncChanges(TypeMap message) throws ServerException {
+        // removals go first so a renamed gate can take its new name
+        Collection<String> removedWorlds = message.getStringList("removedWorlds");
+        if (removedWorlds != null)
+            for (String worldName : removedWorlds)
+                remoteWorlds.remove(worldName);
+        Collection<String> removedPlayers = message.getStringList("removedPlayers");
+        if (removedPlayers != null)
+            for (String playerName : removedPlayers)
+                removeRemotePlayer(playerName);
+        Collection<String> removedGates = message.getStringList("removedGates");
+        if (removedGates != null)
+            for (String gateName : removedGates)
+                removeRemoteGate(gateName);
+
+        Collection<String> worlds = message.getStringList("worlds");
+        if (worlds != null)
+            for (String worldName : worlds) {
+                if (remoteWorlds.containsKey(worldName)) continue;
+                try {
+                    RemoteWorldImpl world = new RemoteWorldImpl(this, worldName);
+                    remoteWorlds.put(world.getName(), world);
+                } catch (IllegalArgumentException iae) {
+                    Utils.warning("received bad world from '%s'", getName());
+                }
+            }
+
+        Collection<TypeMap> players = message.getMapList("players");
+        if (players != null)
+            for (TypeMap msg : players) {
+                try {
+                    RemotePlayerImpl player = new RemotePlayerImpl(this, msg.getString("name"), msg.getString("displayName"), msg.getString("worldName"), msg.getString("prefix"), msg.getString("suffix"));
+                    RemotePlayerImpl oldPlayer = remotePlayers.get(player.getName());
+                    if ((oldPlayer != null) &&
+                        oldPlayer.getDisplayName().equals(player.getDisplayName()) &&
+                        oldPlayer.getWorldName().equals(player.getWorldName()) &&
+                        sameString(oldPlayer.getPrefix(), player.getPrefix()) &&
+                        sameString(oldPlayer.getSuffix(), player.getSuffix())) continue;
+                    addRemotePlayer(player);
+                } catch (IllegalArgumentException iae) {
+                    Utils.warning("received bad player from '%s'", getName());
+                }
+            }
+
+        Collection<TypeMap> gates = message.getMapList("gates");
+        if (gates != null)
+            for (TypeMap gm : gates) {
+                try {
+                    GateType gType = Utils.valueOf(GateType.class, gm.getString("type"));
+                    String gName = gm.getString("name");
+                    boolean gHidden = gm.getBoolean("hidden");
+                    RemoteGateImpl oldGate = remoteGates.get(gName);
+                    if ((oldGate != null) &&
+                        (oldGate.getType() == gType) &&
+                        (oldGate.getHidden() == gHidden)) continue;
+                    removeRemoteGate(gName);
+                    RemoteGateImpl gate = RemoteGateImpl.create(this, gType, gName, gHidden);
+                    remoteGates.put(gate.getLocalName(), gate);
+                    try {
+                        Gates.add(gate, false);
+                    } catch (GateException ge) {
+                        remoteGates.remove(gate.getLocalName());
+                        throw new IllegalArgumentException();
+                    }
+                } catch (GateException ge) {
+                    Utils.warning("received bad gate from '%s'", getName());
+                } catch (IllegalArgumentException iae) {
+                    Utils.warning("received bad gate from '%s'", getName());
+                }
+            }
+        Utils.debug("received changes to %d worlds, %d players and %d gates from '%s'",
+                (worlds == null) ? 0 : worlds.size(),
+                (players == null) ? 0 : players.size(),
+                (gates == null) ? 0 : gates.size(),
+                getName());
+    }
+
+    private static boolean sameString(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    private void removeRemoteGate(String gateName) {
+        RemoteGateImpl gate = remoteGates.remove(gateName);
+        if (gate == null) return;
+        try {
+            Gates.remove(gate);
+        } catch (GateException ge) {}
+    }
+
+    private static TypeMap createMessage(String command) {
         TypeMap m = new TypeMap();
         m.put("command", command);
         return m;
     }
 
-    private void sendMessage(final TypeMap message) {
-        Utils.debug("sending command '%s' to %s", message.getString("command", "<none>"), name);
-        Utils.worker(new Runnable() {
+    private void sendMessage(TypeMap message) {
+        sendMessage(new EncodedMessage(message));
+    }
+
+    // Messages are collected until the next worker run and sent together so
+    // a burst of messages doesn't turn into a burst of frames and wakeups.
+    void sendMessage(EncodedMessage message) {
+        Utils.debug("sending command '%s' to %s", message.getMessage().getString("command", "<none>"), name);
+        synchronized (outbound) {
+            if ("playerChangeWorld".equals(message.getCommand()))
+                coalescePlayerChangeWorld(message.getMessage().getString("player"));
+            outbound.add(message);
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        int task = Utils.worker(new Runnable() {
             @Override
             public void run() {
-                if (connection != null)
-                    connection.sendMessage(message, true);
+                flushMessages();
             }
         });
+        if (task == -1)
+            synchronized (outbound) {
+                outbound.clear();
+                flushScheduled = false;
+            }
+    }
+
+    // Drops a queued playerChangeWorld for the player unless something else
+    // about the player was queued after it. Called with outbound locked.
+    private void coalescePlayerChangeWorld(String playerName) {
+        for (int i = outbound.size() - 1; i >= 0; i--) {
+            TypeMap m = outbound.get(i).getMessage();
+            if (! playerName.equals(m.getString("player"))) continue;
+            if ("playerChangeWorld".equals(m.getString("command"))) {
+                outbound.remove(i);
+                messagesCoalesced.incrementAndGet();
+            }
+            return;
+        }
+    }
+
+    private void flushMessages() {
+        List<EncodedMessage> messages;
+        synchronized (outbound) {
+            messages = new ArrayList<EncodedMessage>(outbound);
+            outbound.clear();
+            flushScheduled = false;
+        }
+        Connection conn = connection;
+        if ((conn != null) && (! messages.isEmpty()))
+            conn.sendMessages(messages, true);
     }
 
     private void normalizePrivateAddress(String addrStr) {
@@ -1992,34 +2342,24 @@ public final class Server implements OptionsListener, RemoteServer {
         remotePlayers.clear();
     }
 
+    // replaces any player already known by the same name
     private void addRemotePlayer(RemotePlayerImpl player) {
         String playerName = player.getName();
+        removeRemotePlayer(playerName);
         remotePlayers.put(playerName, player);
+        RemotePlayers.add(player);
         playerName = formatPlayerListName(player);
         if (playerName == null) return;
-        Global.compatibility.sendAllPacket201PlayerInfo(playerName, true, 9999);
-        //((CraftServer)Global.plugin.getServer()).getHandle().sendAll(new Packet201PlayerInfo(playerName, true, 9999));
+        TabList.add(playerName);
     }
 
     private void removeRemotePlayer(String playerName) {
         RemotePlayerImpl player = remotePlayers.remove(playerName);
         if (player == null) return;
+        RemotePlayers.remove(player);
         playerName = formatPlayerListName(player);
         if (playerName == null) return;
-        Global.compatibility.sendAllPacket201PlayerInfo(playerName, false, 9999);
-        //((CraftServer)Global.plugin.getServer()).getHandle().sendAll(new Packet201PlayerInfo(playerName, false, 9999));
-    }
-
-    private void sendRemotePlayers(Player player) {
-        Utils.debug("sending %s remote players from %s to %s", remotePlayers.size(), name, player.getName());
-        for (RemotePlayerImpl remotePlayer : remotePlayers.values()) {
-            String playerName = formatPlayerListName(remotePlayer);
-            if (playerName == null) continue;
-            Global.compatibility.sendPlayerPacket201PlayerInfo(player, playerName, true, 9999);
-            //NetServerHandler nsh = ((CraftPlayer)player).getHandle().netServerHandler;
-            //if (nsh == null) continue;
-            //nsh.sendPacket(new Packet201PlayerInfo(playerName, true, 9999));
-        }
+        TabList.remove(playerName);
     }
 
     private String formatPlayerListName(RemotePlayerImpl player) {
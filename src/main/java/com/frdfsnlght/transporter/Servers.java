@@ -16,10 +16,14 @@
 package com.frdfsnlght.transporter;
 
 import com.frdfsnlght.transporter.api.RemoteServer;
+import com.frdfsnlght.transporter.compatibility.TabList;
+import com.frdfsnlght.transporter.net.EncodedMessage;
+import com.frdfsnlght.transporter.net.Network;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import org.bukkit.entity.Player;
 
 /**
  *
@@ -31,6 +35,10 @@ public final class Servers {
 
     private static final Map<String,Server> servers = new HashMap<String,Server>();
 
+    // handshake key hash to server, rebuilt on demand after any key changes
+    private static volatile Map<String,Server> keyHashes = null;
+    private static volatile int keysVersion = 0;
+
     public static void onConfigLoad(Context ctx) {
         removeAll();
         servers.clear();
@@ -60,6 +68,8 @@ public final class Servers {
         if (servers.containsKey(name))
             throw new ServerException("a server with the same name already exists");
         servers.put(server.getName(), server);
+        keysChanged();
+        ChatRoutes.invalidate();
         if (server.isEnabled())
             Utils.fireDelayed(new Runnable() {
                 @Override
@@ -73,7 +83,10 @@ public final class Servers {
         String name = server.getName();
         if (! servers.containsKey(name)) return;
         servers.remove(name);
+        keysChanged();
+        ChatRoutes.invalidate();
         server.disconnect(false);
+        RemotePlayers.removeServer(server);
     }
 
     public static void removeAll() {
@@ -127,6 +140,28 @@ public final class Servers {
         return server;
     }
 
+    // called from the network thread during a handshake
+    public static Server findByKeyHash(String hash) {
+        Map<String,Server> map = keyHashes;
+        if (map == null) {
+            int version = keysVersion;
+            map = new HashMap<String,Server>();
+            String networkKey = Network.getCachedKey();
+            for (Server server : getAll()) {
+                String h = Network.hashKeys(server.getKey(), networkKey);
+                if (h != null) map.put(h, server);
+            }
+            if (version == keysVersion)
+                keyHashes = map;
+        }
+        return map.get(hash);
+    }
+
+    public static void keysChanged() {
+        keysVersion++;
+        keyHashes = null;
+    }
+
     public static List<Server> getAll() {
         return new ArrayList<Server>(servers.values());
     }
@@ -139,6 +174,56 @@ public final class Servers {
         return servers.size();
     }
 
+    // Sends the same message to every connected server. The message is
+    // encoded once and shared, only the framing and encryption are done
+    // for each server.
+    public static int broadcast(TypeMap message) {
+        EncodedMessage encoded = null;
+        int count = 0;
+        for (Server server : servers.values()) {
+            if (! server.isConnectionConnected()) continue;
+            if (encoded == null) encoded = new EncodedMessage(message);
+            server.sendMessage(encoded);
+            count++;
+        }
+        return count;
+    }
+
+    public static void sendPlayerChangeWorld(Player player) {
+        if (hasConnectedServer())
+            broadcast(Server.createPlayerChangeWorld(player));
+    }
+
+    public static void sendPlayerJoin(Player player, boolean hasReservation) {
+        TabList.addPlayer(player);
+        if (hasConnectedServer())
+            broadcast(Server.createPlayerJoin(player, hasReservation));
+    }
+
+    public static void sendPlayerQuit(Player player, boolean hasReservation) {
+        TabList.removePlayer(player);
+        if (hasConnectedServer())
+            broadcast(Server.createPlayerQuit(player, hasReservation));
+    }
+
+    public static void sendPlayerKick(Player player, boolean hasReservation) {
+        TabList.removePlayer(player);
+        if (hasConnectedServer())
+            broadcast(Server.createPlayerKick(player, hasReservation));
+    }
+
+    public static void sendPlayerDeath(Player player) {
+        if (hasConnectedServer())
+            broadcast(Server.createPlayerDeath(player));
+    }
+
+    // skips building a message nobody will get
+    private static boolean hasConnectedServer() {
+        for (Server server : servers.values())
+            if (server.isConnectionConnected()) return true;
+        return false;
+    }
+
     public static RemoteServer getRemoteServer(String name) {
         Server server = find(name);
         if (server == null)
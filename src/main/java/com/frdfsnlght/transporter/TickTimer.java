@@ -0,0 +1,122 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A hashed wheel of main thread tasks, swept once per tick.
+ * <p>
+ * Meant for the many short deadlines that are usually cancelled before they
+ * come due, like reservation timeouts, gate locks and countdowns. Scheduling
+ * and cancelling don't touch the server scheduler, and one repeating task
+ * does the sweeping, which only runs while something is scheduled.
+ * </p>
+ * <p>
+ * Main thread only.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class TickTimer {
+
+    private static final long TICK = 50;
+
+    // a full turn of the wheel is a little under 26 seconds
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    @SuppressWarnings("unchecked")
+    private static final List<Timeout>[] wheel = new List[WHEEL_SIZE];
+    private static long tick = 0;
+    private static int size = 0;
+    private static int taskId = -1;
+
+    static {
+        for (int i = 0; i < WHEEL_SIZE; i++)
+            wheel[i] = new ArrayList<Timeout>();
+    }
+
+    private static final Runnable sweeper = new Runnable() {
+        @Override
+        public void run() {
+            sweep();
+        }
+    };
+
+    // delay is millis
+    public static Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, tick + Math.max(1, delay / TICK));
+        wheel[(int)(timeout.tick & MASK)].add(timeout);
+        size++;
+        if (taskId == -1)
+            taskId = Utils.fireRepeating(sweeper, TICK, TICK);
+        return timeout;
+    }
+
+    public static int size() {
+        return size;
+    }
+
+    private static void sweep() {
+        tick++;
+        List<Timeout> due = null;
+        for (Iterator<Timeout> i = wheel[(int)(tick & MASK)].iterator(); i.hasNext(); ) {
+            Timeout timeout = i.next();
+            if ((! timeout.cancelled) && (timeout.tick > tick)) continue;
+            i.remove();
+            size--;
+            if (timeout.cancelled) continue;
+            if (due == null) due = new ArrayList<Timeout>();
+            due.add(timeout);
+        }
+        // tasks can schedule more tasks, even into this bucket
+        if (due != null)
+            for (Timeout timeout : due) {
+                if (timeout.cancelled) continue;
+                timeout.cancelled = true;
+                try {
+                    timeout.task.run();
+                } catch (Throwable t) {
+                    Utils.severe(t, "timer task threw %s: %s", t.getClass().getName(), t.getMessage());
+                }
+            }
+        if ((size == 0) && (taskId != -1)) {
+            Utils.cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    public static final class Timeout {
+
+        private final Runnable task;
+        private final long tick;
+        private boolean cancelled = false;
+
+        private Timeout(Runnable task, long tick) {
+            this.task = task;
+            this.tick = tick;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+    }
+
+}
@@ -159,6 +159,7 @@ public class Transporter extends JavaPlugin {
         Network.stop(ctx);
         Config.save(ctx);
         Gates.save(ctx);
+        GateWriter.flush();
         ctx.sendLog("disabled");
         Global.plugin = null;
     }
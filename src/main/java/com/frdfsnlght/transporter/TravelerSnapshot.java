@@ -0,0 +1,319 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.material.MaterialData;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+
+/**
+ * Compact binary form of a traveler's inventory, armor and potion effects,
+ * sent with a reservation as raw bytes in place of a map per item stack.
+ * <p>
+ * The snapshot starts with a version byte. Integers are varints. An array
+ * is its length followed by its stacks, each stack preceded by the number
+ * of empty slots before it, so runs of empty slots take a single byte. A
+ * stack is its type, amount, durability and flags, then its data byte and
+ * enchantments if it has them. Any other tag data, like names or book
+ * pages, is carried as an encoded map so nothing is lost.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class TravelerSnapshot {
+
+    private static final int VERSION = 1;
+
+    // no player has anywhere near this many slots
+    private static final int MAX_SLOTS = 1024;
+
+    private static final int HAS_DATA = 0x01;
+    private static final int HAS_ENCHANTMENTS = 0x02;
+    private static final int HAS_TAG = 0x04;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    public static byte[] encode(ItemStack[] inventory, ItemStack[] armor, PotionEffect[] potionEffects) {
+        Encoder enc = encoders.get();
+        enc.reset();
+        enc.writeVarint(VERSION);
+        enc.writeItemStacks(inventory);
+        enc.writeItemStacks(armor);
+        enc.writePotionEffects(potionEffects);
+        return enc.toByteArray();
+    }
+
+    public static TravelerSnapshot decode(byte[] encoded) {
+        Decoder dec = new Decoder(encoded);
+        int version = dec.readVarint();
+        if (version != VERSION)
+            throw new IllegalArgumentException("unsupported traveler snapshot version " + version);
+        TravelerSnapshot snapshot = new TravelerSnapshot();
+        snapshot.inventory = dec.readItemStacks();
+        snapshot.armor = dec.readItemStacks();
+        snapshot.potionEffects = dec.readPotionEffects();
+        return snapshot;
+    }
+
+    private ItemStack[] inventory;
+    private ItemStack[] armor;
+    private PotionEffect[] potionEffects;
+
+    private TravelerSnapshot() {}
+
+    public ItemStack[] getInventory() {
+        return inventory;
+    }
+
+    public ItemStack[] getArmor() {
+        return armor;
+    }
+
+    public PotionEffect[] getPotionEffects() {
+        return potionEffects;
+    }
+
+    private static final class Encoder {
+
+        private byte[] buf = new byte[1024];
+        private int len = 0;
+
+        private void reset() {
+            len = 0;
+        }
+
+        private void ensure(int extra) {
+            if ((len + extra) <= buf.length) return;
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[len++] = (byte)b;
+        }
+
+        private void writeVarint(int v) {
+            ensure(5);
+            while ((v & ~0x7f) != 0) {
+                buf[len++] = (byte)((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte)v;
+        }
+
+        private void writeString(String s) {
+            byte[] b = s.getBytes(UTF8);
+            writeVarint(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        }
+
+        // null arrays are written as 0, everything else as length + 1
+        private void writeItemStacks(ItemStack[] stacks) {
+            if (stacks == null) {
+                writeVarint(0);
+                return;
+            }
+            writeVarint(stacks.length + 1);
+            int empty = 0;
+            for (ItemStack stack : stacks) {
+                if (stack == null) {
+                    empty++;
+                    continue;
+                }
+                writeVarint(empty);
+                empty = 0;
+                writeItemStack(stack);
+            }
+            if (empty > 0)
+                writeVarint(empty);
+        }
+
+        private void writeItemStack(ItemStack stack) {
+            MaterialData data = stack.getData();
+            Map<Enchantment,Integer> enchantments = stack.getEnchantments();
+            TypeMap tag = Global.compatibility.getItemStackTag(stack);
+            if (tag != null) {
+                // enchantments are written on their own
+                tag.remove("ench");
+                if (tag.isEmpty()) tag = null;
+            }
+            int flags = 0;
+            if (data != null) flags |= HAS_DATA;
+            if (! enchantments.isEmpty()) flags |= HAS_ENCHANTMENTS;
+            if (tag != null) flags |= HAS_TAG;
+
+            writeVarint(stack.getTypeId());
+            writeVarint(stack.getAmount());
+            writeVarint(stack.getDurability() & 0xffff);
+            writeByte(flags);
+            if (data != null)
+                writeByte(data.getData());
+            if (! enchantments.isEmpty()) {
+                writeVarint(enchantments.size());
+                for (Map.Entry<Enchantment,Integer> e : enchantments.entrySet()) {
+                    writeVarint(e.getKey().getId());
+                    writeVarint(e.getValue());
+                }
+            }
+            if (tag != null)
+                writeString(tag.encode());
+        }
+
+        private void writePotionEffects(PotionEffect[] effects) {
+            if (effects == null) {
+                writeVarint(0);
+                return;
+            }
+            int count = 0;
+            for (PotionEffect pe : effects)
+                if (pe != null) count++;
+            writeVarint(count + 1);
+            for (PotionEffect pe : effects) {
+                if (pe == null) continue;
+                writeVarint(pe.getType().getId());
+                writeVarint(pe.getDuration());
+                writeVarint(pe.getAmplifier());
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+
+    }
+
+    private static final class Decoder {
+
+        private final byte[] buf;
+        private int pos = 0;
+
+        private Decoder(byte[] buf) {
+            this.buf = buf;
+        }
+
+        private int remaining() {
+            return buf.length - pos;
+        }
+
+        // counts come from the other server, so they're checked before use
+        private int readCount(int max, String what) {
+            int n = readVarint();
+            if ((n < 0) || (n > max))
+                throw new IllegalArgumentException("invalid " + what + " count " + n + " in traveler snapshot");
+            return n;
+        }
+
+        private int readByte() {
+            if (pos >= buf.length)
+                throw new IllegalArgumentException("truncated traveler snapshot");
+            return buf[pos++] & 0xff;
+        }
+
+        private int readVarint() {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                v |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IllegalArgumentException("malformed varint in traveler snapshot");
+        }
+
+        private String readString() {
+            int n = readVarint();
+            if ((n < 0) || (n > (buf.length - pos)))
+                throw new IllegalArgumentException("truncated traveler snapshot");
+            String s = new String(buf, pos, n, UTF8);
+            pos += n;
+            return s;
+        }
+
+        private ItemStack[] readItemStacks() {
+            int n = readCount(MAX_SLOTS + 1, "slot");
+            if (n == 0) return null;
+            ItemStack[] stacks = new ItemStack[n - 1];
+            if (stacks.length == 0) return stacks;
+            int slot = readCount(stacks.length, "empty slot");
+            while (slot < stacks.length) {
+                stacks[slot++] = readItemStack();
+                if (slot < stacks.length)
+                    slot += readCount(stacks.length - slot, "empty slot");
+            }
+            return stacks;
+        }
+
+        private ItemStack readItemStack() {
+            int type = readVarint();
+            int amount = readVarint();
+            short durability = (short)readVarint();
+            int flags = readByte();
+            ItemStack stack = Global.compatibility.createItemStack(type, amount, durability);
+            if ((flags & HAS_DATA) != 0) {
+                byte b = (byte)readByte();
+                MaterialData data = stack.getData();
+                if (data != null)
+                    data.setData(b);
+            }
+            int[] enchantments = null;
+            if ((flags & HAS_ENCHANTMENTS) != 0) {
+                // every enchantment takes at least two bytes
+                enchantments = new int[readCount(remaining() / 2, "enchantment") * 2];
+                for (int i = 0; i < enchantments.length; i++)
+                    enchantments[i] = readVarint();
+            }
+            // the tag replaces any enchantments, so it goes first
+            if ((flags & HAS_TAG) != 0)
+                stack = Global.compatibility.setItemStackTag(stack, TypeMap.decode(readString()));
+            if (enchantments != null)
+                for (int i = 0; i < enchantments.length; i += 2) {
+                    Enchantment e = Enchantment.getById(enchantments[i]);
+                    if (e != null)
+                        stack.addUnsafeEnchantment(e, enchantments[i + 1]);
+                }
+            return stack;
+        }
+
+        private PotionEffect[] readPotionEffects() {
+            // every effect takes at least three bytes
+            int n = readCount((remaining() / 3) + 1, "potion effect");
+            if (n == 0) return null;
+            PotionEffect[] effects = new PotionEffect[n - 1];
+            for (int i = 0; i < effects.length; i++) {
+                PotionEffectType type = PotionEffectType.getById(readVarint());
+                int duration = readVarint();
+                int amplifier = readVarint();
+                effects[i] = (type == null) ? null : type.createEffect(duration, amplifier);
+            }
+            return effects;
+        }
+
+    }
+
+}
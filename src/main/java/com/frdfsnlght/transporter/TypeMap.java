@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -41,7 +42,7 @@ import org.yaml.snakeyaml.Yaml;
 public final class TypeMap extends HashMap<String,Object> implements Cloneable {
 
     public static TypeMap decode(String encoded) {
-        return (TypeMap)decodeObject(new StringBuilder(encoded));
+        return (TypeMap)decodeObject(new Cursor(encoded));
     }
 
     public static TypeMap decodeJSON(String encoded) {
@@ -63,13 +64,13 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         throw new IllegalArgumentException("unable to encode '" + v.getClass().getName() + "'");
     }
 
-    private static Object decodeObject(StringBuilder b) {
+    private static Object decodeObject(Cursor b) {
         //if (b.length() == 0) return null;   // to fix StringIndexOutOfBoundsException?
-        char type = b.charAt(0);
-        b.delete(0, 2);
-        int pos = b.indexOf(":");
-        int len = Integer.parseInt(b.substring(0, pos));
-        b.delete(0, pos + 1);
+        char type = b.str.charAt(b.pos);
+        b.pos += 2;
+        int pos = b.str.indexOf(':', b.pos);
+        int len = Integer.parseInt(b.str.substring(b.pos, pos));
+        b.pos = pos + 1;
         switch (type) {
             case 'n':
 //System.out.println("decoded null");
@@ -107,10 +108,11 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return "s:" + v.length() + ":" + v;
     }
 
-    private static String decodeString(StringBuilder b, int len) {
+    private static String decodeString(Cursor b, int len) {
 //System.out.print("decode string (" + len + "): ");
-        String str = b.substring(0, len);
-        b.delete(0, len);
+        String str = b.take(len);
+        // nothing to unescape, so skip the decoder
+        if ((str.indexOf('%') == -1) && (str.indexOf('+') == -1)) return str;
         try {
             String s = URLDecoder.decode(str, "UTF-8");
 //System.out.println(s);
@@ -130,9 +132,8 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return "b:" + s.length() + ":" + s;
     }
 
-    private static Boolean decodeBoolean(StringBuilder b, int len) {
-        String str = b.substring(0, len);
-        b.delete(0, len);
+    private static Boolean decodeBoolean(Cursor b, int len) {
+        String str = b.take(len);
         Boolean bool = Boolean.parseBoolean(str);
 //System.out.println("decode boolean: " + bool);
         return bool;
@@ -147,9 +148,8 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return "l:" + s.length() + ":" + s;
     }
 
-    private static Long decodeLong(StringBuilder b, int len) {
-        String str = b.substring(0, len);
-        b.delete(0, len);
+    private static Long decodeLong(Cursor b, int len) {
+        String str = b.take(len);
         Long l = Long.parseLong(str);
 //System.out.println("decode long: " + l);
         return l;
@@ -164,9 +164,8 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return "d:" + s.length() + ":" + s;
     }
 
-    private static Double decodeDouble(StringBuilder b, int len) {
-        String str = b.substring(0, len);
-        b.delete(0, len);
+    private static Double decodeDouble(Cursor b, int len) {
+        String str = b.take(len);
         Double d = Double.parseDouble(str);
 //System.out.println("decode double: " + d);
         return d;
@@ -186,7 +185,7 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return buf.toString();
     }
 
-    private static TypeMap decodeMap(StringBuilder b, int len) {
+    private static TypeMap decodeMap(Cursor b, int len) {
 //System.out.println("decode message (" + len + ")");
         TypeMap m = new TypeMap();
         for (int i = 0; i < len; i++) {
@@ -215,7 +214,7 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return buf.toString();
     }
 
-    private static List<Object> decodeList(StringBuilder b, int len) {
+    private static List<Object> decodeList(Cursor b, int len) {
 //System.out.println("decode list (" + len + ")");
         List<Object> l = new ArrayList<Object>();
         for (int i = 0; i < len; i++) {
@@ -234,6 +233,22 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return "[\n" + pad(buf.toString()) + "\n]";
     }
 
+    // Walks an encoded string without copying or deleting the consumed part.
+    private static final class Cursor {
+        private final String str;
+        private int pos = 0;
+
+        private Cursor(String str) {
+            this.str = str;
+        }
+
+        private String take(int len) {
+            String s = str.substring(pos, pos + len);
+            pos += len;
+            return s;
+        }
+    }
+
     private static String pad(String str) {
         StringBuilder buf = new StringBuilder();
         for (String line : str.split("\n"))
@@ -359,14 +374,10 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
     public void save() {
         if (file == null)
             throw new IllegalStateException("no file defined");
-        DumperOptions options = new DumperOptions();
-        //options.setAllowUnicode(true);
-        options.setIndent(4);
-        Yaml yaml = new Yaml(options);
         OutputStreamWriter writer = null;
         try {
             writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
-            yaml.dump(this, writer);
+            dump(writer);
         } catch (IOException e) {
         } finally {
             try {
@@ -375,6 +386,14 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         }
     }
 
+    public void dump(Writer writer) {
+        DumperOptions options = new DumperOptions();
+        //options.setAllowUnicode(true);
+        options.setIndent(4);
+        Yaml yaml = new Yaml(options);
+        yaml.dump(this, writer);
+    }
+
     public String encode() {
         return encodeMap(this);
     }
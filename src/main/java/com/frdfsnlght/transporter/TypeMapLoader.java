@@ -0,0 +1,388 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads every YAML file in a folder into maps, several files at a time.
+ * <p>
+ * Files are read on a small pool of threads. The caller's builder turns
+ * each map into whatever the caller needs on the same threads, and the
+ * caller gets the results back in the order the files were listed. Only
+ * what has to happen on the main thread, like giving a gate its world, is
+ * left for the caller.
+ * </p>
+ * <p>
+ * Each folder has a cache file holding a binary copy of every map read
+ * from it, along with the modification time and size of the file it came
+ * from. A file that hasn't changed since is read from the cache instead of
+ * being parsed again, so a restart with no changes doesn't parse any YAML.
+ * The cache is rewritten in the background whenever a file was parsed or
+ * has gone away. A missing, old or damaged cache just means parsing
+ * everything.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class TypeMapLoader {
+
+    private static final String CACHE_FILE = ".cache";
+    private static final int CACHE_MAGIC = 0x54524d43;
+    private static final int CACHE_VERSION = 1;
+    private static final int MAX_THREADS = 4;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int BOOLEAN = 2;
+    private static final int INTEGER = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 5;
+    private static final int MAP = 6;
+    private static final int LIST = 7;
+
+    private static final ThreadFactory threadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Transporter Loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    // builds something from a file's map on a loader thread
+    public interface Builder<T> {
+        T build(TypeMap conf) throws Exception;
+    }
+
+    public static <T> List<Result<T>> load(File folder, final Builder<T> builder) {
+        final File[] files = Utils.listYAMLFiles(folder);
+        if ((files == null) || (files.length == 0)) return Collections.emptyList();
+        long started = System.currentTimeMillis();
+        final File cacheFile = new File(folder, CACHE_FILE);
+        final Map<String,CacheEntry> cache = readCache(cacheFile);
+
+        int threads = Math.min(files.length, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1), threadFactory);
+        List<Future<Result<T>>> futures = new ArrayList<Future<Result<T>>>(files.length);
+        for (final File file : files)
+            futures.add(pool.submit(new Callable<Result<T>>() {
+                @Override
+                public Result<T> call() {
+                    return load(file, cache.get(file.getName()), builder);
+                }
+            }));
+
+        final List<Result<T>> results = new ArrayList<Result<T>>(files.length);
+        boolean changed = cache.size() != files.length;
+        int cached = 0;
+        for (int i = 0; i < files.length; i++) {
+            Result<T> result;
+            try {
+                result = futures.get(i).get();
+            } catch (ExecutionException ee) {
+                result = new Result<T>(files[i]);
+                result.error = ee.getCause();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                result = new Result<T>(files[i]);
+                result.error = ie;
+            }
+            results.add(result);
+            if (result.cached)
+                cached++;
+            else
+                changed = true;
+        }
+
+        if (changed)
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeCache(cacheFile, results);
+                }
+            });
+        pool.shutdown();
+        Utils.debug("read %d files from %s, %d from cache, in %dms", files.length, folder.getPath(), cached, System.currentTimeMillis() - started);
+        return results;
+    }
+
+    private static <T> Result<T> load(File file, CacheEntry entry, Builder<T> builder) {
+        Result<T> result = new Result<T>(file);
+        try {
+            long modified = file.lastModified();
+            long length = file.length();
+            if ((entry != null) && (entry.modified == modified) && (entry.length == length))
+                try {
+                    result.conf = decode(file, entry.data);
+                    result.data = entry.data;
+                    result.cached = true;
+                } catch (IOException e) {
+                    result.conf = null;
+                }
+            if (result.conf == null) {
+                result.conf = new TypeMap(file);
+                result.conf.load();
+                try {
+                    result.data = encode(result.conf);
+                } catch (IllegalArgumentException iae) {
+                    // it'll be parsed again next time
+                }
+            }
+            result.modified = modified;
+            result.length = length;
+        } catch (Throwable t) {
+            result.conf = null;
+            result.error = t;
+            return result;
+        }
+        // a map that can't be built is still cached, it's the same next time
+        try {
+            result.object = builder.build(result.conf);
+        } catch (Throwable t) {
+            result.error = t;
+        }
+        return result;
+    }
+
+    private static Map<String,CacheEntry> readCache(File cacheFile) {
+        Map<String,CacheEntry> cache = new HashMap<String,CacheEntry>();
+        if (! cacheFile.isFile()) return cache;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            if ((in.readInt() != CACHE_MAGIC) || (in.readInt() != CACHE_VERSION)) return cache;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                CacheEntry entry = new CacheEntry();
+                entry.modified = in.readLong();
+                entry.length = in.readLong();
+                entry.data = new byte[in.readInt()];
+                in.readFully(entry.data);
+                cache.put(name, entry);
+            }
+        } catch (IOException e) {
+            Utils.debug("ignoring damaged cache %s: %s", cacheFile.getPath(), e.getMessage());
+            cache.clear();
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+        }
+        return cache;
+    }
+
+    private static void writeCache(File cacheFile, List<? extends Result<?>> results) {
+        File temp = new File(cacheFile.getParentFile(), CACHE_FILE + ".tmp");
+        try {
+            List<Result<?>> entries = new ArrayList<Result<?>>(results.size());
+            for (Result<?> result : results)
+                if (result.data != null) entries.add(result);
+            FileOutputStream fout = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+                out.writeInt(CACHE_MAGIC);
+                out.writeInt(CACHE_VERSION);
+                out.writeInt(entries.size());
+                for (Result<?> result : entries) {
+                    out.writeUTF(result.file.getName());
+                    out.writeLong(result.modified);
+                    out.writeLong(result.length);
+                    out.writeInt(result.data.length);
+                    out.write(result.data);
+                }
+                out.flush();
+                fout.getFD().sync();
+            } finally {
+                fout.close();
+            }
+            if (! temp.renameTo(cacheFile)) {
+                cacheFile.delete();
+                if (! temp.renameTo(cacheFile))
+                    throw new IOException("unable to rename " + temp.getPath());
+            }
+        } catch (IOException e) {
+            temp.delete();
+            Utils.warning("unable to write cache %s: %s", cacheFile.getPath(), e.getMessage());
+        }
+    }
+
+    // throws IllegalArgumentException if the map has something that can't be encoded
+    private static byte[] encode(TypeMap conf) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeObject(out, conf);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TypeMap decode(File file, byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        Object o = readObject(in);
+        if (! (o instanceof Map))
+            throw new IOException("not a map");
+        // the same as TypeMap.load
+        TypeMap conf = new TypeMap(file);
+        for (Map.Entry<String,Object> e : ((Map<String,Object>)o).entrySet())
+            conf.set(e.getKey(), e.getValue());
+        return conf;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeObject(DataOutputStream out, Object v) throws IOException {
+        if (v == null)
+            out.writeByte(NULL);
+        else if (v instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String)v);
+        } else if (v instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean)v);
+        } else if (v instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)v);
+        } else if (v instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long)v);
+        } else if (v instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)v);
+        } else if (v instanceof Map) {
+            out.writeByte(MAP);
+            Map<Object,Object> map = (Map<Object,Object>)v;
+            out.writeInt(map.size());
+            for (Map.Entry<Object,Object> e : map.entrySet()) {
+                writeString(out, e.getKey().toString());
+                writeObject(out, e.getValue());
+            }
+        } else if (v instanceof List) {
+            out.writeByte(LIST);
+            List<Object> list = (List<Object>)v;
+            out.writeInt(list.size());
+            for (Object o : list)
+                writeObject(out, o);
+        } else
+            throw new IllegalArgumentException("unable to cache '" + v.getClass().getName() + "'");
+    }
+
+    private static Object readObject(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case NULL: return null;
+            case STRING: return readString(in);
+            case BOOLEAN: return in.readBoolean();
+            case INTEGER: return in.readInt();
+            case LONG: return in.readLong();
+            case DOUBLE: return in.readDouble();
+            case MAP:
+                int size = in.readInt();
+                Map<String,Object> map = new HashMap<String,Object>();
+                for (int i = 0; i < size; i++) {
+                    String key = readString(in);
+                    map.put(key, readObject(in));
+                }
+                return map;
+            case LIST:
+                size = in.readInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++)
+                    list.add(readObject(in));
+                return list;
+            default:
+                throw new IOException("unknown type " + type);
+        }
+    }
+
+    // writeUTF can't do more than 64K
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
+    private static final class CacheEntry {
+        private long modified;
+        private long length;
+        private byte[] data;
+    }
+
+    public static final class Result<T> {
+
+        private final File file;
+        private TypeMap conf;
+        private T object;
+        private Throwable error;
+        private boolean cached = false;
+        private long modified;
+        private long length;
+        private byte[] data;
+
+        private Result(File file) {
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        // null if the file couldn't be read
+        public TypeMap getTypeMap() {
+            return conf;
+        }
+
+        // what the builder made, null if the file couldn't be read or built
+        public T getObject() {
+            return object;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+    }
+
+}
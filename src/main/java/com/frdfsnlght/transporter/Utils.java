@@ -46,8 +46,11 @@ import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -81,6 +84,24 @@ public class Utils {
 
     private static Pattern tokenPattern = Pattern.compile("%(\\w+)%");
 
+    // tasks for the main thread that are run together once per tick, see fireQueued
+    private static final Queue<Runnable> queuedTasks = new ConcurrentLinkedQueue<Runnable>();
+    private static final AtomicBoolean queuedTasksScheduled = new AtomicBoolean(false);
+    private static final Runnable queuedTasksRunner = new Runnable() {
+        @Override
+        public void run() {
+            queuedTasksScheduled.set(false);
+            Runnable task;
+            while ((task = queuedTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    severe(t, "queued task threw %s: %s", t.getClass().getName(), t.getMessage());
+                }
+            }
+        }
+    };
+
     public static void info(String msg, Object ... args) {
         if (args.length > 0)
             msg = String.format(msg, args);
@@ -376,6 +397,16 @@ public class Utils {
         return Global.plugin.getServer().getScheduler().scheduleSyncDelayedTask(Global.plugin, run);
     }
 
+    // Runs the task on the main thread along with every other task queued
+    // before then, in the order they were queued, using one scheduler task.
+    public static void fireQueued(Runnable run) {
+        if (! Global.enabled) return;
+        queuedTasks.add(run);
+        if (queuedTasksScheduled.compareAndSet(false, true))
+            if (fire(queuedTasksRunner) == -1)
+                queuedTasksScheduled.set(false);
+    }
+
     // delay is millis
     public static int fireDelayed(Runnable run, long delay) {
         if (! Global.enabled) return -1;
@@ -383,6 +414,12 @@ public class Utils {
         return Global.plugin.getServer().getScheduler().scheduleSyncDelayedTask(Global.plugin, run, ticks);
     }
 
+    // delay and period are millis
+    public static int fireRepeating(Runnable run, long delay, long period) {
+        if (! Global.enabled) return -1;
+        return Global.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(Global.plugin, run, delay / 50, period / 50);
+    }
+
     public static <T> Future<T> call(Callable<T> task) {
         if (! Global.enabled) return null;
         return Global.plugin.getServer().getScheduler().callSyncMethod(Global.plugin, task);
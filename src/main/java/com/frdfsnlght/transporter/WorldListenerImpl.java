@@ -18,6 +18,9 @@ package com.frdfsnlght.transporter;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.block.BlockState;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.StructureGrowEvent;
 import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.event.world.WorldUnloadEvent;
 
@@ -27,10 +30,17 @@ import org.bukkit.event.world.WorldUnloadEvent;
  */
 public class WorldListenerImpl implements Listener {
 
+    @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        if (ChunkWarmup.isHeld(event.getChunk()))
+            event.setCancelled(true);
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onWorldLoad(WorldLoadEvent event) {
         Utils.debug("world '%s' loaded", event.getWorld().getName());
         Gates.loadGatesForWorld(new Context(), event.getWorld());
+        Revisions.worldChanged(event.getWorld().getName(), false);
         for (Server server : Servers.getAll())
             server.sendWorldLoad(event.getWorld());
     }
@@ -39,8 +49,16 @@ public class WorldListenerImpl implements Listener {
     public void onWorldUnload(WorldUnloadEvent event) {
         Utils.debug("world '%s' unloaded", event.getWorld().getName());
         Gates.removeGatesForWorld(event.getWorld());
+        Revisions.worldChanged(event.getWorld().getName(), true);
         for (Server server : Servers.getAll())
             server.sendWorldUnload(event.getWorld());
     }
 
+    // area gates rescan the columns of their spawn caches trees touch
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onStructureGrowMonitor(StructureGrowEvent event) {
+        for (BlockState state : event.getBlocks())
+            LocalAreaGateImpl.blockChanged(event.getWorld(), state.getX(), state.getY(), state.getZ());
+    }
+
 }
@@ -22,6 +22,7 @@ import com.frdfsnlght.transporter.GateImpl;
 import com.frdfsnlght.transporter.Gates;
 import com.frdfsnlght.transporter.LocalGateImpl;
 import com.frdfsnlght.transporter.Realm;
+import com.frdfsnlght.transporter.RemotePlayers;
 import com.frdfsnlght.transporter.ReservationImpl;
 import com.frdfsnlght.transporter.Server;
 import com.frdfsnlght.transporter.Servers;
@@ -47,6 +48,20 @@ public final class API {
         return players;
     }
 
+    /**
+     * Returns the online player from a connected remote server with the
+     * specified name.
+     * <p>
+     * The name is not case sensitive and can be abbreviated, as long as
+     * only one player's name starts with the abbreviation.
+     *
+     * @param name  the name of the player
+     * @return the {@link RemotePlayer}, or null if no player or more than one matches
+     */
+    public RemotePlayer getRemotePlayer(String name) {
+        return RemotePlayers.find(name);
+    }
+
     /**
      * Returns a set of all gates on the local server.
      *
@@ -15,7 +15,9 @@
  */
 package com.frdfsnlght.transporter.command;
 
+import com.frdfsnlght.transporter.ChunkWarmup;
 import com.frdfsnlght.transporter.Context;
+import com.frdfsnlght.transporter.GateWriter;
 import com.frdfsnlght.transporter.Gates;
 import com.frdfsnlght.transporter.PlayerListenerImpl;
 import com.frdfsnlght.transporter.Utils;
@@ -44,6 +46,12 @@ public class DebugCommand extends TrpCommandProcessor {
         List<String> cmds = new ArrayList<String>();
         if (ctx.isConsole())
             cmds.add(getPrefix(ctx) + GROUP + "submit <id>");
+        if (ctx.isConsole())
+            cmds.add(getPrefix(ctx) + GROUP + "gatecache [reset]");
+        if (ctx.isConsole())
+            cmds.add(getPrefix(ctx) + GROUP + "warmup [reset]");
+        if (ctx.isConsole())
+            cmds.add(getPrefix(ctx) + GROUP + "writer");
         if (ctx.isPlayer())
             cmds.add(getPrefix(ctx) + GROUP + "interact");
         return cmds;
@@ -89,6 +97,44 @@ public class DebugCommand extends TrpCommandProcessor {
             return;
         }
 
+        if ("gatecache".startsWith(subCmd)) {
+            if (! ctx.isConsole())
+                throw new CommandException("this command is only available on the console");
+            long hits = Gates.getChunkCacheHits();
+            long misses = Gates.getChunkCacheMisses();
+            ctx.send("%d chunks have gates", Gates.getGateChunkCount());
+            ctx.send("%d lookups skipped, %d searched (%d%% skipped)", hits, misses,
+                    ((hits + misses) == 0) ? 0 : (hits * 100) / (hits + misses));
+            if ((! args.isEmpty()) && "reset".startsWith(args.get(0).toLowerCase())) {
+                Gates.resetChunkCacheCounters();
+                ctx.send("reset gate chunk cache counters");
+            }
+            return;
+        }
+
+        if ("warmup".startsWith(subCmd)) {
+            if (! ctx.isConsole())
+                throw new CommandException("this command is only available on the console");
+            long warm = ChunkWarmup.getWarmArrivals();
+            long cold = ChunkWarmup.getColdArrivals();
+            ctx.send("%d chunks held for arrivals", ChunkWarmup.getHeldChunkCount());
+            ctx.send("%d arrivals warm, %d cold (%d%% warm)", warm, cold,
+                    ((warm + cold) == 0) ? 0 : (warm * 100) / (warm + cold));
+            if ((! args.isEmpty()) && "reset".startsWith(args.get(0).toLowerCase())) {
+                ChunkWarmup.resetArrivalCounters();
+                ctx.send("reset arrival counters");
+            }
+            return;
+        }
+
+        if ("writer".startsWith(subCmd)) {
+            if (! ctx.isConsole())
+                throw new CommandException("this command is only available on the console");
+            ctx.send("%d gate files waiting to be written", GateWriter.getPendingCount());
+            ctx.send("%d gate files written, %d saves replaced by newer ones", GateWriter.getWrites(), GateWriter.getCoalesced());
+            return;
+        }
+
         throw new CommandException("debug what?");
     }
 
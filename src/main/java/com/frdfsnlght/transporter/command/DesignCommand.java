@@ -18,22 +18,27 @@ package com.frdfsnlght.transporter.command;
 import com.frdfsnlght.transporter.Config;
 import com.frdfsnlght.transporter.Context;
 import com.frdfsnlght.transporter.Design;
+import com.frdfsnlght.transporter.DesignException;
 import com.frdfsnlght.transporter.Designs;
 import com.frdfsnlght.transporter.Economy;
 import com.frdfsnlght.transporter.EconomyException;
 import com.frdfsnlght.transporter.Gates;
 import com.frdfsnlght.transporter.Global;
 import com.frdfsnlght.transporter.Inventory;
+import com.frdfsnlght.transporter.InventoryException;
 import com.frdfsnlght.transporter.LocalAreaGateImpl;
 import com.frdfsnlght.transporter.LocalGateImpl;
 import com.frdfsnlght.transporter.LocalServerGateImpl;
 import com.frdfsnlght.transporter.Permissions;
 import com.frdfsnlght.transporter.Utils;
+import com.frdfsnlght.transporter.api.GateException;
 import com.frdfsnlght.transporter.api.TransporterException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.entity.Player;
@@ -187,27 +192,50 @@ public class DesignCommand extends TrpCommandProcessor {
                 if (design.mustBuildFromInventory())
                     Inventory.requireBlocks(ctx.getPlayer(), design.getInventoryBlocks());
 
-                LocalGateImpl gate = design.create(player.getLocation(), player.getName(), gateName);
-                Gates.add(gate, true);
-                ctx.sendLog("created gate '%s'", gate.getName());
-                Gates.setSelectedGate(ctx.getPlayer(), gate);
-
+                // charged before the build starts so the same funds and blocks
+                // can't pay for another gate in the meantime
+                final String playerName = player.getName();
+                final double cost = design.getBuildCost() + design.getCreateCost();
+                final double charged = Economy.deductFunds(player, cost) ? cost : 0;
+                final Map<Material,Integer> blocks = design.mustBuildFromInventory() ? design.getInventoryBlocks() : null;
                 try {
-                    if (Economy.deductFunds(ctx.getPlayer(), design.getBuildCost()))
-                        ctx.sendLog("debited %s for gate construction", Economy.format(design.getBuildCost()));
-                } catch (EconomyException ee) {
-                    Utils.warning("unable to debit gate construction costs for %s: %s", ctx.getPlayer().getName(), ee.getMessage());
+                    if ((blocks != null) && Inventory.deductBlocks(player, design.getInventoryBlocks()))
+                        ctx.sendLog("debited inventory");
+                } catch (InventoryException ie) {
+                    refund(playerName, charged, null);
+                    throw ie;
                 }
+                if (charged > 0)
+                    ctx.sendLog("debited %s for gate construction and creation", Economy.format(charged));
+
+                final Context fctx = ctx;
+                final String flink = link;
+                final boolean frev = rev;
                 try {
-                    if (Economy.deductFunds(ctx.getPlayer(), design.getCreateCost()))
-                        ctx.sendLog("debited %s for gate creation", Economy.format(design.getCreateCost()));
-                } catch (EconomyException ee) {
-                    Utils.warning("unable to debit gate creation costs for %s: %s", ctx.getPlayer().getName(), ee.getMessage());
+                    design.create(player.getLocation(), playerName, gateName, new Design.CreateCallback() {
+                        @Override
+                        public void onCreated(LocalGateImpl gate) {
+                            if (! fctx.getPlayer().isOnline()) return;
+                            fctx.sendLog("created gate '%s'", gate.getName());
+                            Gates.setSelectedGate(fctx.getPlayer(), gate);
+                            if (flink == null) return;
+                            fctx.getPlayer().performCommand("trp gate link add \"" + flink + "\"" + (frev ? " rev" : ""));
+                        }
+                        @Override
+                        public void onFailed(GateException ge) {
+                            refund(playerName, charged, blocks);
+                            if (fctx.getPlayer().isOnline())
+                                fctx.warnLog("unable to create gate: %s", ge.getMessage());
+                            else
+                                Utils.warning("unable to create gate for %s: %s", playerName, ge.getMessage());
+                        }
+                    });
+                } catch (DesignException de) {
+                    refund(playerName, charged, blocks);
+                    throw de;
                 }
-
-                if (design.mustBuildFromInventory())
-                    if (Inventory.deductBlocks(ctx.getPlayer(), design.getInventoryBlocks()))
-                        ctx.sendLog("debited inventory");
+                ctx.send("building gate '%s'...", gateName);
+                return;
             }
 
             if (link == null) return;
@@ -219,4 +247,20 @@ public class DesignCommand extends TrpCommandProcessor {
         throw new CommandException("do what with a design?");
     }
 
+    // gives back what was charged for a gate that wasn't created
+    private void refund(String playerName, double funds, Map<Material,Integer> blocks) {
+        try {
+            if (Economy.refundFunds(playerName, funds))
+                Utils.debug("refunded %s to %s", Economy.format(funds), playerName);
+        } catch (EconomyException ee) {
+            Utils.warning("unable to refund gate costs to %s: %s", playerName, ee.getMessage());
+        }
+        if (blocks == null) return;
+        Player player = Global.plugin.getServer().getPlayerExact(playerName);
+        if (player == null)
+            Utils.warning("unable to return gate blocks to %s, who is offline", playerName);
+        else
+            Inventory.returnBlocks(player, blocks);
+    }
+
 }
@@ -18,6 +18,7 @@ package com.frdfsnlght.transporter.command;
 import com.frdfsnlght.transporter.Context;
 import com.frdfsnlght.transporter.Permissions;
 import com.frdfsnlght.transporter.Realm;
+import com.frdfsnlght.transporter.RemotePlayers;
 import com.frdfsnlght.transporter.Server;
 import com.frdfsnlght.transporter.Servers;
 import com.frdfsnlght.transporter.api.TransporterException;
@@ -105,6 +106,11 @@ public class ServerCommand extends TrpCommandProcessor {
                                     server.getPrivateAddress(),
                                     server.getNormalizedPrivateAddress().getAddress().getHostAddress(),
                                     server.getNormalizedPrivateAddress().getPort()));
+                    ctx.send("    messagesSent:         %d in %d frames, %d coalesced, %d bytes saved",
+                            server.getMessagesSent(),
+                            server.getFramesSent(),
+                            server.getMessagesCoalesced(),
+                            server.getBytesSaved());
                     if (server.isConnectionConnected()) {
                         ctx.send("    remoteServerName:     %s",
                                 server.getRemoteServer());
@@ -122,6 +128,8 @@ public class ServerCommand extends TrpCommandProcessor {
                         ctx.send("    remoteBungeeServer:   %s",
                                 (server.getRemoteBungeeServer() == null) ?
                                     "-" : server.getRemoteBungeeServer());
+                        ctx.send("    remotePlayers:        %d",
+                                RemotePlayers.getServerCount(server));
                     }
                 }
             }
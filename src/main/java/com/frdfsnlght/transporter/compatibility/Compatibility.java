@@ -46,8 +46,8 @@ public class Compatibility {
         if (pc == null) return;
 
         Object pk = Reflect.create(Reflect.nmsname("Packet201PlayerInfo"),
-                                   playerName, true, 9999);
-        Reflect.getMethod(pc, "sendAll", Reflect.nmsname("Packet")).invoke(pk);
+                                   playerName, b, i);
+        Reflect.getMethod(pc, "sendPacket", Reflect.nmsname("Packet")).invoke(pk);
     }
 
     public ItemStack createItemStack(int type, int amount, short durability) {
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.compatibility;
+
+import com.frdfsnlght.transporter.Global;
+import com.frdfsnlght.transporter.Utils;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.bukkit.entity.Player;
+
+/**
+ * Keeps the remote player names in every local player's tab list.
+ * <p>
+ * Changes aren't sent right away. On the next tick each player is sent the
+ * difference between the names that should be listed and the names that
+ * player has already been sent, so a name that's removed and added again
+ * before then, like when a server reconnects, isn't sent at all. No more
+ * than a set number of packets are sent each tick, and whatever's left is
+ * sent on the ticks after that.
+ * </p>
+ * <p>
+ * Main thread only.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class TabList {
+
+    private static final int MAX_PACKETS_PER_TICK = 500;
+    private static final int PING = 9999;
+
+    // name -> number of remote players listed by that name
+    private static final Map<String,Integer> names = new HashMap<String,Integer>();
+    // local player name -> names sent to that player
+    private static final Map<String,Set<String>> sent = new HashMap<String,Set<String>>();
+    // local players that may need updates
+    private static final Set<String> dirty = new HashSet<String>();
+    private static boolean changed = false;
+    private static boolean scheduled = false;
+
+    private static final Runnable updater = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            update(MAX_PACKETS_PER_TICK);
+        }
+    };
+
+    public static void add(String name) {
+        Integer count = names.get(name);
+        names.put(name, (count == null) ? 1 : (count + 1));
+        if (count == null) changed();
+    }
+
+    public static void remove(String name) {
+        Integer count = names.get(name);
+        if (count == null) return;
+        if (count > 1)
+            names.put(name, count - 1);
+        else {
+            names.remove(name);
+            changed();
+        }
+    }
+
+    // the player has just joined and hasn't been sent anything
+    public static void addPlayer(Player player) {
+        sent.remove(player.getName());
+        if (names.isEmpty()) return;
+        dirty.add(player.getName());
+        schedule();
+    }
+
+    public static void removePlayer(Player player) {
+        sent.remove(player.getName());
+        dirty.remove(player.getName());
+    }
+
+    private static void changed() {
+        changed = true;
+        schedule();
+    }
+
+    private static void schedule() {
+        if (scheduled) return;
+        scheduled = true;
+        if (Utils.fire(updater) == -1) {
+            // shutting down, so there are no more ticks
+            scheduled = false;
+            update(Integer.MAX_VALUE);
+        }
+    }
+
+    private static void update(int budget) {
+        if (Global.plugin == null) return;
+        Player[] players = Global.plugin.getServer().getOnlinePlayers();
+        if (changed) {
+            changed = false;
+            for (Player player : players)
+                dirty.add(player.getName());
+        }
+        for (Player player : players) {
+            String playerName = player.getName();
+            if (! dirty.contains(playerName)) continue;
+            Set<String> playerSent = sent.get(playerName);
+            if (playerSent == null) {
+                playerSent = new HashSet<String>();
+                sent.put(playerName, playerSent);
+            }
+            for (Iterator<String> i = playerSent.iterator(); i.hasNext(); ) {
+                String name = i.next();
+                if (names.containsKey(name)) continue;
+                if (budget-- <= 0) {
+                    schedule();
+                    return;
+                }
+                Global.compatibility.sendPlayerPacket201PlayerInfo(player, name, false, PING);
+                i.remove();
+            }
+            for (String name : names.keySet()) {
+                if (playerSent.contains(name)) continue;
+                if (budget-- <= 0) {
+                    schedule();
+                    return;
+                }
+                Global.compatibility.sendPlayerPacket201PlayerInfo(player, name, true, PING);
+                playerSent.add(name);
+            }
+            dirty.remove(playerName);
+        }
+        // anyone left isn't online anymore
+        dirty.clear();
+    }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.frdfsnlght.transporter.TypeMap;
+
+/**
+ * Compact binary encoding of a TypeMap for the server-to-server link.
+ * <p>
+ * Every value is written as a one byte tag followed by its payload. Lengths
+ * and integers are varints (integers are zigzag encoded first). Map keys are
+ * written as a varint reference into the key table, which is seeded with
+ * the well known keys below and grows with every literal key seen in the
+ * message, so a key is only ever spelled out once per message.
+ * </p>
+ * <p>
+ * The decoder produces exactly the same value types as
+ * {@link TypeMap#decode(String)}: TypeMap, List, String, Boolean, Long,
+ * Double or null. Byte arrays are carried as they are too, which the text
+ * encoding can't do, so they're only sent to peers using this codec.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class BinaryCodec {
+
+    // The version is part of the name. Peers only use this codec when they
+    // advertise the same name, so any change to the tags or the key table
+    // below needs a new name.
+    public static final String NAME = "binary2";
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_FALSE = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_MAP = 6;
+    private static final byte TAG_LIST = 7;
+    private static final byte TAG_BYTES = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Both sides of a connection must agree on the index of every entry, so
+    // changing this table in any way means changing NAME too!
+    private static final String[] KEYS = new String[] {
+        "command", "name", "worldName", "world", "player", "displayName",
+        "prefix", "suffix", "type", "hidden", "id", "requestId", "responseId",
+        "target", "method", "args", "result", "failure", "message", "from",
+        "to", "hasReservation", "time", "reservation", "gates", "players",
+        "worlds", "oldName", "newName", "reason", "toGates", "error",
+        "publicAddress", "privateAddress", "server", "cluster", "realm",
+        "bungeeServer", "entityType", "entityId", "playerName", "playerPin",
+        "clientAddress", "velX", "velY", "velZ", "fromX", "fromY", "fromZ",
+        "fromPitch", "fromYaw", "fromWorld", "inventory", "health",
+        "remainingAir", "fireTicks", "foodLevel", "exhaustion", "saturation",
+        "gameMode", "heldItemSlot", "armor", "level", "xp", "potionEffects",
+        "fromGate", "fromGateDirection", "toGate", "toWorldName", "toX", "toY",
+        "toZ", "amount", "durability", "data", "tag", "duration", "amplifier",
+        "x", "y", "z"
+    };
+
+    private static final Map<String,Integer> KEY_INDEXES = new HashMap<String,Integer>();
+
+    static {
+        for (int i = 0; i < KEYS.length; i++)
+            KEY_INDEXES.put(KEYS[i], i);
+    }
+
+    public static byte[] encode(TypeMap message) {
+        Encoder enc = new Encoder();
+        enc.writeMap(message);
+        return enc.toByteArray();
+    }
+
+    public static TypeMap decode(ByteBuffer buffer) {
+        Decoder dec = new Decoder(buffer);
+        Object o = dec.readObject();
+        if (! (o instanceof TypeMap))
+            throw new IllegalArgumentException("message is not a map");
+        return (TypeMap)o;
+    }
+
+    private static final class Encoder {
+
+        private byte[] buf = new byte[256];
+        private int len = 0;
+        private Map<String,Integer> keys = null;
+        private int nextKey = KEYS.length;
+
+        private void ensure(int extra) {
+            if ((len + extra) <= buf.length) return;
+            int size = buf.length << 1;
+            while (size < (len + extra)) size <<= 1;
+            byte[] b = new byte[size];
+            System.arraycopy(buf, 0, b, 0, len);
+            buf = b;
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[len++] = (byte)b;
+        }
+
+        private void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                buf[len++] = (byte)((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte)v;
+        }
+
+        private void writeBytes(byte[] b) {
+            writeVarint(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        }
+
+        private void writeKey(String key) {
+            Integer idx = KEY_INDEXES.get(key);
+            if ((idx == null) && (keys != null))
+                idx = keys.get(key);
+            if (idx != null) {
+                writeVarint(((long)idx << 1) | 1);
+                return;
+            }
+            if (keys == null)
+                keys = new HashMap<String,Integer>();
+            keys.put(key, nextKey++);
+            byte[] b = key.getBytes(UTF8);
+            writeVarint((long)b.length << 1);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        }
+
+        private void writeObject(Object v) {
+            if (v == null) writeByte(TAG_NULL);
+            else if (v instanceof String) {
+                writeByte(TAG_STRING);
+                writeBytes(((String)v).getBytes(UTF8));
+            } else if (v instanceof Boolean)
+                writeByte(((Boolean)v) ? TAG_TRUE : TAG_FALSE);
+            else if ((v instanceof Byte) ||
+                     (v instanceof Short) ||
+                     (v instanceof Integer) ||
+                     (v instanceof Long)) {
+                long l = ((Number)v).longValue();
+                writeByte(TAG_LONG);
+                writeVarint((l << 1) ^ (l >> 63));
+            } else if ((v instanceof Float) || (v instanceof Double)) {
+                long l = Double.doubleToLongBits(((Number)v).doubleValue());
+                writeByte(TAG_DOUBLE);
+                ensure(8);
+                for (int i = 56; i >= 0; i -= 8)
+                    buf[len++] = (byte)(l >> i);
+            } else if (v instanceof byte[]) {
+                writeByte(TAG_BYTES);
+                writeBytes((byte[])v);
+            } else if (v instanceof TypeMap)
+                writeMap((TypeMap)v);
+            else if (v instanceof Collection) {
+                Collection c = (Collection)v;
+                writeByte(TAG_LIST);
+                writeVarint(c.size());
+                for (Object o : c)
+                    writeObject(o);
+            } else
+                throw new IllegalArgumentException("unable to encode '" + v.getClass().getName() + "'");
+        }
+
+        private void writeMap(TypeMap m) {
+            writeByte(TAG_MAP);
+            writeVarint(m.size());
+            for (Map.Entry<String,Object> e : m.entrySet()) {
+                writeKey(e.getKey());
+                writeObject(e.getValue());
+            }
+        }
+
+        private byte[] toByteArray() {
+            byte[] b = new byte[len];
+            System.arraycopy(buf, 0, b, 0, len);
+            return b;
+        }
+
+    }
+
+    private static final class Decoder {
+
+        private final ByteBuffer buf;
+        private List<String> keys = null;
+
+        private Decoder(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        private long readVarint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf.get();
+                v |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IllegalArgumentException("malformed varint");
+        }
+
+        private int readLength() {
+            long l = readVarint();
+            if ((l < 0) || (l > buf.remaining()))
+                throw new IllegalArgumentException("invalid length " + l);
+            return (int)l;
+        }
+
+        private String readString(int len) {
+            String s;
+            if (buf.hasArray())
+                s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, UTF8);
+            else {
+                byte[] b = new byte[len];
+                buf.get(b);
+                return new String(b, UTF8);
+            }
+            buf.position(buf.position() + len);
+            return s;
+        }
+
+        private String readKey() {
+            long ref = readVarint();
+            int idx = (int)(ref >>> 1);
+            if ((ref & 1) == 1) {
+                if (idx < KEYS.length) return KEYS[idx];
+                idx -= KEYS.length;
+                if ((keys == null) || (idx >= keys.size()))
+                    throw new IllegalArgumentException("invalid key reference " + ref);
+                return keys.get(idx);
+            }
+            if (idx > buf.remaining())
+                throw new IllegalArgumentException("invalid key length " + idx);
+            String key = readString(idx);
+            if (keys == null)
+                keys = new ArrayList<String>();
+            keys.add(key);
+            return key;
+        }
+
+        private Object readObject() {
+            byte tag = buf.get();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString(readLength());
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_LONG:
+                    long l = readVarint();
+                    return (l >>> 1) ^ -(l & 1);
+                case TAG_DOUBLE:
+                    return Double.longBitsToDouble(buf.getLong());
+                case TAG_MAP:
+                    int size = readLength();
+                    TypeMap m = new TypeMap();
+                    for (int i = 0; i < size; i++) {
+                        String key = readKey();
+                        m.put(key, readObject());
+                    }
+                    return m;
+                case TAG_LIST:
+                    int count = readLength();
+                    List<Object> list = new ArrayList<Object>(count);
+                    for (int i = 0; i < count; i++)
+                        list.add(readObject());
+                    return list;
+                case TAG_BYTES:
+                    byte[] b = new byte[readLength()];
+                    buf.get(b);
+                    return b;
+                default:
+                    throw new IllegalArgumentException("unable to decode tag " + tag);
+            }
+        }
+
+    }
+
+}
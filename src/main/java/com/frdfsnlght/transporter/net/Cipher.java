@@ -17,6 +17,7 @@
 package com.frdfsnlght.transporter.net;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.security.Key;
 import java.util.ArrayList;
 import java.util.List;
@@ -46,16 +47,22 @@ public final class Cipher {
     // changed if you ever expect to decrypt something you've already
     // encrypted before the value was changed!
     private static long randomSeed = 4587243876L;
-    private static final List<Byte> scramble;
+
+    // scramble[position] is the byte at that position, and
+    // positions[unsigned byte] is the position of that byte in scramble.
+    private static final byte[] scramble = new byte[256];
+    private static final int[] positions = new int[256];
 
     static {
         List<Byte> seed = new ArrayList<Byte>(256);
-        scramble = new ArrayList<Byte>(256);
         for (int i = 0; i < 256; i++)
             seed.add((byte)(i + Byte.MIN_VALUE));
+        int pos = 0;
         while (seed.size() > 0)
-            //scramble.add(seed.remove(random(seed.size())));
-            scramble.add(seed.remove(0));
+            //scramble[pos++] = seed.remove(random(seed.size()));
+            scramble[pos++] = seed.remove(0);
+        for (int i = 0; i < 256; i++)
+            positions[scramble[i] & 0xff] = i;
     }
 
     // Use a custom random number generator because we can't rely on the
@@ -68,13 +75,14 @@ public final class Cipher {
         return (int)(((double)randomSeed / (double)randomN) * (double)range);
     }
 
-    private ByteArrayOutputStream buffer;
+    private final Random padRandom = new Random();
+    private ByteArrayOutputStream buffer = null;
     private int padSize;
     private int mode;
     private byte[] key;
+    private int[] keyPositions;
     private int keyIndex;
-    private int factor1;
-    private int factor2;
+    private int factor;
 
     /**
      * Creates a new instance of Cipher.
@@ -125,6 +133,19 @@ public final class Cipher {
         this.padSize = padSize;
     }
 
+    /**
+     * Returns the length of the cipher data produced by encrypting plain
+     * text data of the specified length.
+     * @param length the length of the plain text data
+     * @return the length of the cipher data
+     */
+    public int getOutputSize(int length) {
+        if (padSize == 0) return length;
+        int extraBytes = padSize - ((length + 4) % padSize);
+        if (extraBytes == padSize) extraBytes = 0;
+        return length + extraBytes + 4;
+    }
+
     /**
      * Initializes the cipher in the specified mode with the specified key data.
      * <p>
@@ -136,6 +157,10 @@ public final class Cipher {
      * Usually, the key data is obtained from the
      * {@link java.security.Key#getEncoded} method.
      * </p>
+     * <p>
+     * Initializing a cipher again with the same key data is cheap, so a
+     * single instance can be reused for many messages.
+     * </p>
      * @param mode the mode the cipher will be used in
      * @param key the key data used during de/encryption
      */
@@ -144,7 +169,12 @@ public final class Cipher {
             throw new IllegalArgumentException("mode is invalid");
         reset();
         this.mode = mode;
-        this.key = key;
+        if (this.key != key) {
+            this.key = key;
+            keyPositions = new int[key.length];
+            for (int i = 0; i < key.length; i++)
+                keyPositions[i] = positions[key[i] & 0xff];
+        }
     }
 
     /**
@@ -198,9 +228,9 @@ public final class Cipher {
      * Resets the cipher, canceling any de/encryption currently in progress.
      */
     public void reset() {
-        buffer = new ByteArrayOutputStream();
+        if (buffer != null) buffer.reset();
         keyIndex = 0;
-        factor1 = factor2 = 0;
+        factor = 0;
         mode = None;
     }
 
@@ -226,6 +256,29 @@ public final class Cipher {
         return doFinal(cipherText);
     }
 
+    // Positions wrap at 256, so the running factor only needs its low 8 bits.
+    private byte transform(byte data) {
+        int posIn = positions[data & 0xff];
+        int adj = keyPositions[keyIndex++];
+        if (keyIndex >= keyPositions.length) keyIndex = 0;
+
+        int factor1 = factor + adj;
+        int posOut;
+        if (mode == Encrypt) {
+            posOut = (posIn + factor1) & 0xff;
+            factor = (factor1 + posOut) & 0xff;
+        } else {
+            posOut = (posIn - factor1) & 0xff;
+            factor = (factor1 + posIn) & 0xff;
+        }
+        return scramble[posOut];
+    }
+
+    private void transform(byte[] data, int offset, int length) {
+        for (int i = offset; i < (offset + length); i++)
+            data[i] = transform(data[i]);
+    }
+
     /**
      * Updates the cipher stream with a single byte of data.
      * @param data the byte of data
@@ -233,28 +286,8 @@ public final class Cipher {
     public void update(byte data) {
         if (mode == None)
             throw new IllegalStateException("encrypt/decrypt mode not set");
-
-        int posIn = scramble.indexOf(data);
-        int adj = scramble.indexOf(key[keyIndex++]);
-        if (keyIndex >= key.length) keyIndex = 0;
-
-        factor1 = factor2 + adj;
-
-        int posOut;
-        if (mode == Encrypt)
-            posOut = posIn + factor1;
-        else
-            posOut = posIn - factor1;
-
-        posOut = (posOut % scramble.size());
-        if (posOut < 0) posOut += scramble.size();
-
-        if (mode == Encrypt)
-            factor2 = factor1 + posOut;
-        else
-            factor2 = factor1 + posIn;
-
-        buffer.write(scramble.get(posOut));
+        if (buffer == null) buffer = new ByteArrayOutputStream();
+        buffer.write(transform(data));
     }
 
     /**
@@ -263,8 +296,7 @@ public final class Cipher {
      */
     public void update(byte[] data) {
         if (data == null) return;
-        for (byte b : data)
-            update(b);
+        update(data, 0, data.length);
     }
 
     /**
@@ -275,10 +307,87 @@ public final class Cipher {
      */
     public void update(byte[] data, int offset, int length) {
         if (data == null) return;
-        for (int i = offset; i < (i + length); i++)
+        for (int i = offset; i < (offset + length); i++)
             update(data[i]);
     }
 
+    /**
+     * De/encrypts the data between the buffer's position and limit in place.
+     * <p>
+     * The buffer's position is advanced to its limit.
+     * </p>
+     * @param data the buffer containing the data
+     */
+    public void update(ByteBuffer data) {
+        if (mode == None)
+            throw new IllegalStateException("encrypt/decrypt mode not set");
+        if (data.hasArray()) {
+            transform(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            for (int i = data.position(); i < data.limit(); i++)
+                data.put(i, transform(data.get(i)));
+            data.position(data.limit());
+        }
+    }
+
+    /**
+     * Completes the de/encryption cycle in place and resets the cipher instance.
+     * <p>
+     * When encrypting, the plain text data between the buffer's position and
+     * limit is replaced by the cipher data, including any padding. The buffer
+     * must have room for {@link #getOutputSize} bytes from its position.
+     * When decrypting, the cipher data between the buffer's position and
+     * limit is replaced by the plain text data and the limit is moved back
+     * over the padding.
+     * </p>
+     * <p>
+     * The buffer's position is left unchanged.
+     * </p>
+     * @param data the buffer containing the data
+     * @return true on success, false if the cipher data couldn't be decrypted
+     */
+    public boolean doFinal(ByteBuffer data) {
+        if (mode == None)
+            throw new IllegalStateException("encrypt/decrypt mode not set");
+        try {
+            int start = data.position();
+            int length = data.remaining();
+            if (mode == Encrypt) {
+                if (padSize > 0) {
+                    int outLength = getOutputSize(length);
+                    int extraBytes = outLength - length - 4;
+                    data.limit(start + outLength);
+                    data.position(start + length);
+                    for (int i = 0; i < extraBytes; i++)
+                        data.put((byte)(padRandom.nextInt(256) + Byte.MIN_VALUE));
+                    data.putInt(extraBytes);
+                    data.position(start);
+                }
+                update(data);
+                data.position(start);
+                return true;
+            }
+            if ((padSize > 0) && ((length % padSize) != 0)) {
+                // decryption failed
+                return false;
+            }
+            update(data);
+            data.position(start);
+            if (padSize > 0) {
+                int extraBytes = data.getInt(start + length - 4);
+                if ((extraBytes >= padSize) || (extraBytes < 0)) {
+                    // something went wrong
+                    return false;
+                }
+                data.limit(start + length - 4 - extraBytes);
+            }
+            return true;
+        } finally {
+            reset();
+        }
+    }
+
     /**
      * Completes the de/encryption cycle, resets the cipher instance,
      * and returns the de/encrypted (cipher) data.
@@ -287,14 +396,13 @@ public final class Cipher {
     public byte[] doFinal() {
         if (mode == None)
             throw new IllegalStateException("encrypt/decrypt mode not set");
+        if (buffer == null) buffer = new ByteArrayOutputStream();
         try {
             if (padSize > 0) {
                 if (mode == Encrypt) {
-                    int extraBytes = padSize - ((buffer.size() + 4) % padSize);
-                    if (extraBytes == padSize) extraBytes = 0;
-                    Random r = new Random();
+                    int extraBytes = getOutputSize(buffer.size()) - buffer.size() - 4;
                     for (int i = 0; i < extraBytes; i++)
-                        update((byte)(r.nextInt(256) + Byte.MIN_VALUE));
+                        update((byte)(padRandom.nextInt(256) + Byte.MIN_VALUE));
                     update((byte)((extraBytes >> 24) & 0x000000ff));
                     update((byte)((extraBytes >> 16) & 0x000000ff));
                     update((byte)((extraBytes >> 8) & 0x000000ff));
@@ -306,11 +414,7 @@ public final class Cipher {
                         // decryption failed
                         return new byte[0];
                     }
-                    int extraBytes =
-                            ((int)tmp[tmp.length - 1] & 0x000000ff) |
-                            (((int)tmp[tmp.length - 2] << 8) & 0x0000ff00) |
-                            (((int)tmp[tmp.length - 3] << 16) & 0x00ff0000) |
-                            (((int)tmp[tmp.length - 4] << 24) & 0xff000000);
+                    int extraBytes = ByteBuffer.wrap(tmp).getInt(tmp.length - 4);
                     if ((extraBytes >= padSize) || (extraBytes < 0)) {
                         // something went wrong
                         return new byte[0];
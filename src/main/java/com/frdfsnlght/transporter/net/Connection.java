@@ -19,15 +19,17 @@ import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Formatter;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import com.frdfsnlght.transporter.Base64;
 import com.frdfsnlght.transporter.Global;
 import com.frdfsnlght.transporter.Server;
 import com.frdfsnlght.transporter.Servers;
@@ -45,22 +47,58 @@ public final class Connection {
     public static final int PROTOCOL_TIMEOUT = 8000;    // 8 seconds
 
     private static final byte ENCRYPTED_FLAG = 0x01;
+    private static final byte BINARY_FLAG = 0x02;
+    private static final byte SESSION_FLAG = 0x04;
     private static final int CIPHER_PAD_SIZE = 256;
-
-    private SocketChannel channel;
+    private static final int MAX_BATCH_SIZE = 65536;
+    private static final int MAX_DECODE_QUEUE_SIZE = 4 * 1024 * 1024;
+
+    // Optional messages and fields this side understands. Each side sends
+    // its list in the handshake and only uses what the other side listed.
+    public static final String FEATURE_REVISIONS = "revisions";
+    public static final String FEATURE_TRAVELER_SNAPSHOTS = "travelerSnapshots";
+    private static final String[] FEATURES = new String[] {
+        FEATURE_REVISIONS,
+        FEATURE_TRAVELER_SNAPSHOTS
+    };
+
+    private volatile SocketChannel channel;
+    private volatile SelectorThread selectorThread = null;
     private String name = null;
     private Server server = null;
     private boolean incoming = false;
     private String connectAddress;
-    private State state = State.NONE;
+    private volatile State state = State.NONE;
     private long lastMessageSentTime = 0;
     private long lastMessageReceivedTime = 0;
-
-    private byte[] readBuffer = null;
-    private final List<byte[]> writeBuffers = new ArrayList<byte[]>();
-
-    private int nextRequestId = 1;
-    private final Map<Integer,Result> requests = new HashMap<Integer,Result>();
+    private volatile boolean binaryCodec = false;
+    private volatile Set<String> peerFeatures = Collections.emptySet();
+
+    // set when AES-GCM was negotiated, every frame after the handshake uses them
+    private final Object sendLock = new Object();
+    private byte[] clientNonce = null;
+    private SessionCipher sendSession = null;
+    private SessionCipher receiveSession = null;
+
+    // reused for every message, they're only reinitialized per message
+    // the encrypting cipher is guarded by sendLock
+    private final Cipher encryptCipher = new Cipher(CIPHER_PAD_SIZE);
+    private final Cipher decryptCipher = new Cipher(CIPHER_PAD_SIZE);
+    private String encryptKey = null;
+    private byte[] encryptKeyData = null;
+    private String decryptKey = null;
+    private byte[] decryptKeyData = null;
+
+    // records are parsed in place, the buffer only grows for a record that doesn't fit
+    private ByteBuffer readBuffer = null;
+
+    // records waiting for a decoder thread
+    private final Queue<byte[]> decodeQueue = new ArrayDeque<byte[]>();
+    private int decodeQueueSize = 0;
+    private boolean decodeScheduled = false;
+    private boolean readPaused = false;
+
+    private final Queue<ByteBuffer> writeBuffers = new ArrayDeque<ByteBuffer>();
 
     // For incoming connections
     public Connection(SocketChannel channel) {
@@ -93,6 +131,15 @@ public final class Connection {
         return name;
     }
 
+    public boolean isBinaryCodec() {
+        return binaryCodec;
+    }
+
+    // true if the other side listed the feature in its handshake
+    public boolean hasFeature(String feature) {
+        return peerFeatures.contains(feature);
+    }
+
     public long getLastMessageSentTime() {
         return lastMessageSentTime;
     }
@@ -113,6 +160,14 @@ public final class Connection {
         return channel;
     }
 
+    SelectorThread getSelectorThread() {
+        return selectorThread;
+    }
+
+    void setSelectorThread(SelectorThread selectorThread) {
+        this.selectorThread = selectorThread;
+    }
+
     public String getConnectAddress() {
         return connectAddress;
     }
@@ -137,17 +192,26 @@ public final class Connection {
         TypeMap message = new TypeMap();
         message.put("protocolVersion", PROTOCOL_VERSION);
         message.put("pluginVersion", Global.pluginVersion);
+        List<String> codecs = new ArrayList<String>();
+        codecs.add(BinaryCodec.NAME);
+        message.put("codecs", codecs);
+        message.put("features", createFeatureList());
+
+        if (Network.getSecureTransport() && SessionCipher.isAvailable()) {
+            List<String> security = new ArrayList<String>();
+            security.add(SessionCipher.NAME);
+            message.put("security", security);
+            clientNonce = SessionCipher.createNonce();
+            message.put("nonce", Base64.encode(clientNonce));
+        }
 
-        try {
-            MessageDigest dig = MessageDigest.getInstance("SHA1");
-            Formatter f = new Formatter();
-            byte[] out = dig.digest((Network.getCachedKey() + ":" + server.getKey()).getBytes("UTF-8"));
-            for (Byte b : out) f.format("%02x", b);
-            message.put("key", f.toString());
-            sendMessage(message, false);
-        } catch (NoSuchAlgorithmException e) {
-            Utils.severe(e, "unable to create handshake message");
-        } catch (UnsupportedEncodingException e) {}
+        String key = Network.hashKeys(Network.getCachedKey(), server.getKey());
+        if (key == null) {
+            Utils.severe("unable to create handshake message");
+            return;
+        }
+        message.put("key", key);
+        sendMessage(message, false);
     }
 
     // incoming connection, we're the server
@@ -165,103 +229,174 @@ public final class Connection {
         }, HANDSHAKE_TIMEOUT);
     }
 
-    public void onReadData(byte[] data) {
-        if (state == State.CLOSED) return;
-
+    public ByteBuffer getReadBuffer() {
         if (readBuffer == null)
-            readBuffer = data;
-        else {
-            int oldSize = readBuffer.length;
-            readBuffer = Arrays.copyOf(readBuffer, oldSize + data.length);
-            System.arraycopy(data, 0, readBuffer, oldSize, data.length);
-        }
+            readBuffer = ByteBuffer.allocate(Network.getCachedReadBufferSize());
+        return readBuffer;
+    }
 
-        // extract and process all records received
-        while (readBuffer.length >= 4) {
-            byte flags = readBuffer[0];
-            int recLenNew =
-                    (0x00ff0000 & (Utils.unsignedByteToInt(readBuffer[1]) << 16)) +
-                    (0x0000ff00 & (Utils.unsignedByteToInt(readBuffer[2]) << 8)) +
-                    (0x000000ff & Utils.unsignedByteToInt(readBuffer[3]));
+    // Called after data was read into the read buffer. Complete records are
+    // queued for the decoders. Returns false if reading should stop until the
+    // decoders have caught up with this connection.
+    public boolean onReadData() {
+        readBuffer.flip();
+
+        boolean schedule = false;
+        int grow = 0;
+        while ((state != State.CLOSED) && (readBuffer.remaining() >= 4)) {
+            byte[] data = readBuffer.array();
+            int start = readBuffer.position();
             int recLen =
-                    (0x00ff0000 & ((int)readBuffer[1] << 16)) +
-                    (0x0000ff00 & ((int)readBuffer[2] << 8)) +
-                    (0x000000ff & (int)readBuffer[3]);
-            if (recLen < 0) {
-                Utils.warning("received invalid message length from %s", name);
+                    (0x00ff0000 & ((int)data[start + 1] << 16)) +
+                    (0x0000ff00 & ((int)data[start + 2] << 8)) +
+                    (0x000000ff & (int)data[start + 3]);
+            if (readBuffer.remaining() < (recLen + 4)) {
+                // make room for a record that will never fit
+                if ((recLen + 4) > readBuffer.capacity())
+                    grow = recLen + 4;
+                break;
+            }
+            byte[] record = new byte[recLen + 4];
+            readBuffer.get(record);
+            synchronized (decodeQueue) {
+                decodeQueue.add(record);
+                decodeQueueSize += record.length;
+                if (! decodeScheduled)
+                    schedule = decodeScheduled = true;
+            }
+        }
+
+        if (state == State.CLOSED)
+            readBuffer.clear();
+        else if (grow > 0) {
+            ByteBuffer buffer = ByteBuffer.allocate(grow);
+            buffer.put(readBuffer);
+            readBuffer = buffer;
+        } else if ((! readBuffer.hasRemaining()) && (readBuffer.capacity() > Network.getCachedReadBufferSize()))
+            // drop a buffer that grew for a large record
+            readBuffer = null;
+        else
+            readBuffer.compact();
+
+        synchronized (decodeQueue) {
+            if (schedule && (! Network.decode(this))) {
+                // we're shutting down
+                decodeQueue.clear();
+                decodeQueueSize = 0;
+                decodeScheduled = false;
+            }
+            if (decodeQueueSize > MAX_DECODE_QUEUE_SIZE) {
+                readPaused = true;
+                Network.wantRead(this, false);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // called from a decoder thread, never by more than one at a time
+    public void onDecode() {
+        while (true) {
+            byte[] record;
+            synchronized (decodeQueue) {
+                record = decodeQueue.poll();
+                if (record == null) {
+                    decodeScheduled = false;
+                    return;
+                }
+                decodeQueueSize -= record.length;
+                if (readPaused && (decodeQueueSize <= (MAX_DECODE_QUEUE_SIZE / 2))) {
+                    readPaused = false;
+                    Network.wantRead(this, true);
+                }
+            }
+            if (state != State.CLOSED)
+                onRecord(record[0], record, 4, record.length - 4);
+        }
+    }
+
+    // data is decrypted in place, so the record can't be looked at again
+    private void onRecord(byte flags, byte[] data, int offset, int length) {
+        try {
+            if ((receiveSession != null) != ((flags & SESSION_FLAG) == SESSION_FLAG)) {
+                Utils.warning("received unexpected %s message from %s", (receiveSession == null) ? "session" : "non-session", name);
                 close();
                 return;
             }
-            if (readBuffer.length >= (recLen + 4)) {
+            ByteBuffer payload;
+            if (receiveSession != null) {
                 try {
-                    byte[] messageData = Arrays.copyOfRange(readBuffer, 4, recLen + 4);
-                    byte[] clearData = messageData;
-                    if ((flags & ENCRYPTED_FLAG) == ENCRYPTED_FLAG) {
-                        Cipher cipher = new Cipher(CIPHER_PAD_SIZE);
-                        cipher.initDecrypt(Network.getCachedKey().getBytes("UTF-8"));
-                        messageData = cipher.doFinal(messageData);
-                    }
-                    String encoded = new String(messageData, "UTF-8");
-                    try {
-                        TypeMap message = TypeMap.decode(encoded);
-                        if (message != null)
-                            onMessage(message);
-                    } catch (StringIndexOutOfBoundsException e) {
-                        Utils.severe("Got a StringIndexOutOfBounds, dumping debug state!!!");
-                        Utils.severe("flags=%s", flags);
-                        Utils.severe("recLen bytes: %s %s %s",
-                            (0x00ff0000 & ((long)readBuffer[1] << 16)),
-                            (0x0000ff00 & ((long)readBuffer[2] << 8)),
-                            (0x000000ff & (long)readBuffer[3])
-                        );
-                        Utils.severe("recLen=%s", recLen);
-                        Utils.severe("recLenNew=%s", recLenNew);
-                        Utils.severe("readBuffer.length=%s", readBuffer.length);
-                        Utils.severe("clearData.length=%s", clearData.length);
-                        Utils.severe("messageData.length=%s", messageData.length);
-                        Utils.severe("encoded.length=%s", encoded.length());
-                        Utils.severe("encoded=%s", encoded);
-                        Utils.severe("first 16 bytes of clearData: %s", Utils.byteArrayToString(clearData, 0, 16));
-                        Utils.severe("last 16 bytes of clearData: %s", Utils.byteArrayToString(clearData, clearData.length - 16, 16));
-                        Utils.severe("first 16 bytes of messageData: %s", Utils.byteArrayToString(messageData, 0, 16));
-                        Utils.severe("last 16 bytes of messageData: %s", Utils.byteArrayToString(messageData, messageData.length - 16, 16));
-                        Utils.severe("first 16 bytes of readBuffer: %s", Utils.byteArrayToString(readBuffer, 0, 16));
-                        Utils.severe("next 16 bytes of readBuffer: %s", Utils.byteArrayToString(readBuffer, recLen + 4, 16));
-                        throw e;
-                    }
-                } catch (Throwable t) {
-                    Utils.severe(t, "exception while processing message from %s: %s", name, t.getMessage());
+                    int n = receiveSession.doFinal(data, offset, length, data, offset);
+                    payload = ByteBuffer.wrap(data, offset, n);
+                } catch (GeneralSecurityException e) {
+                    Utils.warning("unable to decrypt message from %s: %s", name, e.getMessage());
                     close();
                     return;
                 }
-                if ((recLen + 4) == readBuffer.length) {
-                    readBuffer = null;
-                    break;
-                } else
-                    readBuffer = Arrays.copyOfRange(readBuffer, recLen + 4, readBuffer.length);
-            } else
-                break;
+            } else {
+                payload = ByteBuffer.wrap(data, offset, length);
+                if ((flags & ENCRYPTED_FLAG) == ENCRYPTED_FLAG) {
+                    decryptCipher.initDecrypt(getDecryptKeyData());
+                    if (! decryptCipher.doFinal(payload)) {
+                        Utils.warning("unable to decrypt message from %s", name);
+                        close();
+                        return;
+                    }
+                }
+            }
+            if ((flags & BINARY_FLAG) == BINARY_FLAG) {
+                // binary records can carry more than one message
+                while (payload.hasRemaining() && (state != State.CLOSED)) {
+                    TypeMap message = BinaryCodec.decode(payload);
+                    onMessage(message);
+                }
+            } else {
+                String encoded = new String(data, payload.position(), payload.remaining(), "UTF-8");
+                try {
+                    TypeMap message = TypeMap.decode(encoded);
+                    if (message != null)
+                        onMessage(message);
+                } catch (StringIndexOutOfBoundsException e) {
+                    Utils.severe("Got a StringIndexOutOfBounds, dumping debug state!!!");
+                    Utils.severe("flags=%s", flags);
+                    Utils.severe("recLen=%s", length);
+                    Utils.severe("payload.remaining=%s", payload.remaining());
+                    Utils.severe("encoded.length=%s", encoded.length());
+                    Utils.severe("encoded=%s", encoded);
+                    Utils.severe("first 16 bytes of payload: %s", Utils.byteArrayToString(data, payload.position(), 16));
+                    Utils.severe("last 16 bytes of payload: %s", Utils.byteArrayToString(data, Math.max(payload.position(), payload.limit() - 16), 16));
+                    throw e;
+                }
+            }
+        } catch (Throwable t) {
+            Utils.severe(t, "exception while processing message from %s: %s", name, t.getMessage());
+            close();
         }
-
     }
 
     public boolean onHasWriteData() {
         synchronized (writeBuffers) {
             return ! writeBuffers.isEmpty();
         }
-
     }
 
-    public byte[] onGetWriteData() {
+    // fills the array with as many queued records as fit and returns how many
+    public int onGetWriteData(ByteBuffer[] buffers) {
         synchronized (writeBuffers) {
-            if (writeBuffers.isEmpty()) return null;
-            return writeBuffers.remove(0);
+            int count = 0;
+            for (ByteBuffer buffer : writeBuffers) {
+                if (count == buffers.length) break;
+                buffers[count++] = buffer;
+            }
+            return count;
         }
     }
 
-    public void onPutWriteData(byte[] data) {
+    // drops the records that were written completely
+    public void onWroteData() {
         synchronized (writeBuffers) {
-            writeBuffers.add(0, data);
+            while ((! writeBuffers.isEmpty()) && (! writeBuffers.peek().hasRemaining()))
+                writeBuffers.remove();
         }
     }
 
@@ -304,69 +439,136 @@ public final class Connection {
     }
 
     public void sendMessage(TypeMap message, boolean encrypt) {
+        List<EncodedMessage> messages = new ArrayList<EncodedMessage>(1);
+        messages.add(new EncodedMessage(message));
+        sendMessages(messages, encrypt);
+    }
+
+    // Sends the messages in as few frames as possible. A binary frame can
+    // carry several messages back to back, text frames only carry one.
+    // Messages shared with other connections are only encoded once, only
+    // the framing and encryption are done per connection.
+    public void sendMessages(List<EncodedMessage> messages, boolean encrypt) {
         if (state == State.CLOSED) return;
+        int frames = 0;
+        long bytesSaved = 0;
         try {
-            String encoded = message.encode();
-            byte[] messageData = encoded.getBytes("UTF-8");
-            byte[] clearData = messageData;
-            if (encrypt) {
-                Cipher cipher = new Cipher(CIPHER_PAD_SIZE);
-                cipher.initEncrypt(server.getKey().getBytes("UTF-8"));
-                messageData = cipher.doFinal(messageData);
-            }
-            byte[] data = new byte[messageData.length + 4];
-            System.arraycopy(messageData, 0, data, 4, messageData.length);
-            data[0] = encrypt ? ENCRYPTED_FLAG : 0;
-            data[1] = (byte)(0x00ff & (messageData.length >> 16));
-            data[2] = (byte)(0x00ff & (messageData.length >> 8));
-            data[3] = (byte)(0x00ff & messageData.length);
-
-            int recLen =
-                    (0x00ff0000 & ((int)data[1] << 16)) +
-                    (0x0000ff00 & ((int)data[2] << 8)) +
-                    (0x000000ff & (int)data[3]);
-            if (recLen != messageData.length) {
-                Utils.severe("Encoded message link mismatched, dumping debug state!!!");
-                Utils.severe("encoded=%s", encoded);
-                Utils.severe("encoded.length=%s", encoded.length());
-                Utils.severe("encrypt=%s", encrypt);
-                Utils.severe("clearData.length=%s", clearData.length);
-                Utils.severe("messageData.length=%s", messageData.length);
-                Utils.severe("data.length=%s", data.length);
-                Utils.severe("recLen=%s", recLen);
-                Utils.severe("recLen bytes: %s %s %s",
-                    (0x00ff0000 & ((int)data[1] << 16)),
-                    (0x0000ff00 & ((int)data[2] << 8)),
-                    (0x000000ff & (int)data[3])
-                );
-                Utils.severe("first 16 bytes of clearData: %s", Utils.byteArrayToString(clearData, 0, 16));
-                Utils.severe("last 16 bytes of clearData: %s", Utils.byteArrayToString(clearData, clearData.length - 16, 16));
-                Utils.severe("first 16 bytes of messageData: %s", Utils.byteArrayToString(messageData, 0, 16));
-                Utils.severe("last 16 bytes of messageData: %s", Utils.byteArrayToString(messageData, messageData.length - 16, 16));
-                Utils.severe("first 16 bytes of data: %s", Utils.byteArrayToString(data, 0, 16));
-                Utils.severe("last 16 bytes of data: %s", Utils.byteArrayToString(data, data.length - 16, 16));
-                (new Exception("Invalid message encoding!!!")).printStackTrace();
+            boolean binary = binaryCodec;
+            List<byte[]> encodedData = new ArrayList<byte[]>(messages.size());
+            List<String> encodings = new ArrayList<String>(messages.size());
+            for (EncodedMessage message : messages) {
+                if (binary) {
+                    encodedData.add(message.getBinary());
+                    encodings.add("(binary)");
+                } else {
+                    encodedData.add(message.getTextData());
+                    encodings.add(message.getText());
+                }
             }
-            synchronized (writeBuffers) {
-                writeBuffers.add(data);
+            // frames must be queued in the same order the session numbers them
+            synchronized (sendLock) {
+                int first = 0;
+                while (first < encodedData.size()) {
+                    int last = first + 1;
+                    int length = encodedData.get(first).length;
+                    if (binary)
+                        while ((last < encodedData.size()) &&
+                               ((length + encodedData.get(last).length) <= MAX_BATCH_SIZE))
+                            length += encodedData.get(last++).length;
+                    byte[] messageData;
+                    if ((last - first) == 1)
+                        messageData = encodedData.get(first);
+                    else {
+                        messageData = new byte[length];
+                        int pos = 0;
+                        for (int i = first; i < last; i++) {
+                            byte[] part = encodedData.get(i);
+                            System.arraycopy(part, 0, messageData, pos, part.length);
+                            pos += part.length;
+                            bytesSaved += getFrameSize(part.length, encrypt) - part.length;
+                        }
+                        bytesSaved -= getFrameSize(length, encrypt) - length;
+                    }
+                    byte[] data = createFrame(messageData, encrypt, binary, encodings.get(first));
+                    synchronized (writeBuffers) {
+                        writeBuffers.add(ByteBuffer.wrap(data));
+                    }
+                    frames++;
+                    first = last;
+                }
             }
             lastMessageSentTime = System.currentTimeMillis();
         } catch (UnsupportedEncodingException e) {
+        } catch (GeneralSecurityException e) {
+            Utils.severe(e, "unable to encrypt message to %s: %s", getName(), e.getMessage());
+            close();
+            return;
         }
+        if (server != null)
+            server.onMessagesSent(messages.size(), frames, bytesSaved);
         Network.wantWrite(this);
     }
 
-    public Result sendRequest(TypeMap message, boolean encrypt) {
-        int requestId = nextRequestId++;
-        message.put("requestId", requestId);
-        Result result = new Result();
-        synchronized (requests) {
-            requests.put(requestId, result);
-        }
-        sendMessage(message, encrypt);
-        return result;
+    // called with sendLock held
+    private int getFrameSize(int length, boolean encrypt) {
+        if (sendSession != null)
+            return sendSession.getOutputSize(length) + 4;
+        if (encrypt)
+            return encryptCipher.getOutputSize(length) + 4;
+        return length + 4;
     }
 
+    // called with sendLock held
+    private byte[] createFrame(byte[] messageData, boolean encrypt, boolean binary, String encoded) throws UnsupportedEncodingException, GeneralSecurityException {
+        byte[] data;
+        byte flags = binary ? BINARY_FLAG : 0;
+        if (sendSession != null) {
+            data = new byte[sendSession.getOutputSize(messageData.length) + 4];
+            sendSession.doFinal(messageData, 0, messageData.length, data, 4);
+            flags |= SESSION_FLAG;
+        } else if (encrypt) {
+            // encrypt in place, right behind the header
+            encryptCipher.initEncrypt(getEncryptKeyData());
+            data = new byte[encryptCipher.getOutputSize(messageData.length) + 4];
+            System.arraycopy(messageData, 0, data, 4, messageData.length);
+            encryptCipher.doFinal(ByteBuffer.wrap(data, 4, messageData.length));
+            flags |= ENCRYPTED_FLAG;
+        } else {
+            data = new byte[messageData.length + 4];
+            System.arraycopy(messageData, 0, data, 4, messageData.length);
+        }
+        int dataLength = data.length - 4;
+        data[0] = flags;
+        data[1] = (byte)(0x00ff & (dataLength >> 16));
+        data[2] = (byte)(0x00ff & (dataLength >> 8));
+        data[3] = (byte)(0x00ff & dataLength);
+
+        int recLen =
+                (0x00ff0000 & ((int)data[1] << 16)) +
+                (0x0000ff00 & ((int)data[2] << 8)) +
+                (0x000000ff & (int)data[3]);
+        if (recLen != dataLength) {
+            Utils.severe("Encoded message link mismatched, dumping debug state!!!");
+            Utils.severe("encoded=%s", encoded);
+            Utils.severe("encoded.length=%s", encoded.length());
+            Utils.severe("encrypt=%s", encrypt);
+            Utils.severe("messageData.length=%s", messageData.length);
+            Utils.severe("dataLength=%s", dataLength);
+            Utils.severe("data.length=%s", data.length);
+            Utils.severe("recLen=%s", recLen);
+            Utils.severe("recLen bytes: %s %s %s",
+                (0x00ff0000 & ((int)data[1] << 16)),
+                (0x0000ff00 & ((int)data[2] << 8)),
+                (0x000000ff & (int)data[3])
+            );
+            Utils.severe("first 16 bytes of messageData: %s", Utils.byteArrayToString(messageData, 0, 16));
+            Utils.severe("last 16 bytes of messageData: %s", Utils.byteArrayToString(messageData, messageData.length - 16, 16));
+            Utils.severe("first 16 bytes of data: %s", Utils.byteArrayToString(data, 0, 16));
+            Utils.severe("last 16 bytes of data: %s", Utils.byteArrayToString(data, data.length - 16, 16));
+            (new Exception("Invalid message encoding!!!")).printStackTrace();
+        }
+        return data;
+    }
 
     private void onMessage(TypeMap message) {
         lastMessageReceivedTime = System.currentTimeMillis();
@@ -412,44 +614,51 @@ public final class Connection {
                     close();
                     return;
                 }
-                for (Server serv : Servers.getAll()) {
-                    try {
-                        MessageDigest dig = MessageDigest.getInstance("SHA1");
-                        Formatter f = new Formatter();
-                        byte[] out = dig.digest((serv.getKey() + ":" + Network.getCachedKey()).getBytes("UTF-8"));
-                        for (Byte b : out) f.format("%02x", b);
-                        if (f.toString().equals(key)) {
-                            Utils.info("server key match detected for '%s' on connection with %s", serv.getName(), getName());
-                            if (serv.isEnabled()) {
-                                if (serv.isConnectionConnected()) {
-                                    Utils.warning("server '%s' is already connected", serv.getName());
-                                    close();
-                                    return;
-                                } else if (serv.isConnecting())
-                                    serv.disconnect(false);
-                                server = serv;
-                                server.setConnection(this);
-                                state = State.ESTABLISHED;
-
-                                // send handshake
-                                message = new TypeMap();
-                                message.put("protocolVersion", PROTOCOL_VERSION);
-                                message.put("pluginVersion", Global.pluginVersion);
-                                sendMessage(message, false);
-
-                                server.onConnected(version);
-                                return;
-                            } else {
-                                Utils.info("server '%s' is disabled", serv.getName());
-                                TypeMap errMsg = new TypeMap();
-                                errMsg.put("error", "server is disabled");
-                                sendMessage(errMsg, false);
-                                close();
-                                return;
-                            }
+                Server serv = Servers.findByKeyHash(key);
+                if (serv != null) {
+                    Utils.info("server key match detected for '%s' on connection with %s", serv.getName(), getName());
+                    if (serv.isEnabled()) {
+                        if (serv.isConnectionConnected()) {
+                            Utils.warning("server '%s' is already connected", serv.getName());
+                            close();
+                            return;
+                        } else if (serv.isConnecting())
+                            serv.disconnect(false);
+                        server = serv;
+                        server.setConnection(this);
+
+                        // send handshake
+                        boolean binary = supportsBinaryCodec(message);
+                        byte[] clientNonce = getSecureTransportNonce(message);
+                        byte[] serverNonce = null;
+                        TypeMap reply = new TypeMap();
+                        reply.put("protocolVersion", PROTOCOL_VERSION);
+                        reply.put("pluginVersion", Global.pluginVersion);
+                        if (binary)
+                            reply.put("codec", BinaryCodec.NAME);
+                        reply.put("features", createFeatureList());
+                        if (clientNonce != null) {
+                            serverNonce = SessionCipher.createNonce();
+                            reply.put("security", SessionCipher.NAME);
+                            reply.put("nonce", Base64.encode(serverNonce));
                         }
-                    } catch (NoSuchAlgorithmException e) {
-                    } catch (UnsupportedEncodingException e) {}
+                        sendMessage(reply, false);
+                        binaryCodec = binary;
+                        peerFeatures = getFeatures(message);
+                        if ((clientNonce != null) && (! startSession(clientNonce, serverNonce)))
+                            return;
+                        state = State.ESTABLISHED;
+
+                        server.onConnected(version);
+                        return;
+                    } else {
+                        Utils.info("server '%s' is disabled", serv.getName());
+                        TypeMap errMsg = new TypeMap();
+                        errMsg.put("error", "server is disabled");
+                        sendMessage(errMsg, false);
+                        close();
+                        return;
+                    }
                 }
                 if ((server == null) || (! server.connectionMessagesSuppressed()))
                     Utils.warning("unknown key detected on connection with %s", this);
@@ -458,6 +667,24 @@ public final class Connection {
                 sendMessage(errMsg, false);
                 close();
             } else {
+                binaryCodec = BinaryCodec.NAME.equals(message.getString("codec"));
+                peerFeatures = getFeatures(message);
+                String security = message.getString("security");
+                if (security != null) {
+                    byte[] serverNonce = null;
+                    try {
+                        serverNonce = Base64.decode(message.getString("nonce", ""));
+                    } catch (IllegalArgumentException e) {}
+                    if ((! SessionCipher.NAME.equals(security)) ||
+                        (clientNonce == null) ||
+                        (serverNonce == null) ||
+                        (serverNonce.length != SessionCipher.NONCE_SIZE)) {
+                        Utils.warning("unexpected transport security '%s' on connection with '%s'", security, getName());
+                        close();
+                        return;
+                    }
+                    if (! startSession(clientNonce, serverNonce)) return;
+                }
                 state = State.ESTABLISHED;
                 server.onConnected(version);
             }
@@ -470,19 +697,80 @@ public final class Connection {
                 close();
                 return;
             }
-            if (message.containsKey("responseId")) {
-                int responseId = message.getInt("responseId");
-                Result result;
-                synchronized (requests) {
-                    result = requests.remove(responseId);
-                }
-                if (result == null)
-                    Utils.warning("received response to unknown request %d from %s", responseId, getName());
-                else
-                    result.setResult(message);
-            } else
-                server.onMessage(message);
+            server.onMessage(message);
+        }
+    }
+
+    private byte[] getEncryptKeyData() throws UnsupportedEncodingException {
+        String key = server.getKey();
+        if (! key.equals(encryptKey)) {
+            encryptKeyData = key.getBytes("UTF-8");
+            encryptKey = key;
         }
+        return encryptKeyData;
+    }
+
+    private byte[] getDecryptKeyData() throws UnsupportedEncodingException {
+        String key = Network.getCachedKey();
+        if (! key.equals(decryptKey)) {
+            decryptKeyData = key.getBytes("UTF-8");
+            decryptKey = key;
+        }
+        return decryptKeyData;
+    }
+
+    // Returns the connecting side's nonce if it offered, and we accept, AES-GCM.
+    private byte[] getSecureTransportNonce(TypeMap message) {
+        if (! (Network.getSecureTransport() && SessionCipher.isAvailable())) return null;
+        List<String> security = message.getStringList("security");
+        if ((security == null) || (! security.contains(SessionCipher.NAME))) return null;
+        try {
+            byte[] nonce = Base64.decode(message.getString("nonce", ""));
+            if (nonce.length == SessionCipher.NONCE_SIZE) return nonce;
+        } catch (IllegalArgumentException e) {}
+        return null;
+    }
+
+    // Both sides know both keys, so the secret is the pair of keys in the
+    // same order the connecting side hashes them.
+    private boolean startSession(byte[] clientNonce, byte[] serverNonce) {
+        try {
+            String secret;
+            if (incoming)
+                secret = server.getKey() + ":" + Network.getCachedKey();
+            else
+                secret = Network.getCachedKey() + ":" + server.getKey();
+            byte[] secretData = secret.getBytes("UTF-8");
+            synchronized (sendLock) {
+                sendSession = new SessionCipher(true, secretData, incoming ? "s2c" : "c2s", clientNonce, serverNonce);
+            }
+            receiveSession = new SessionCipher(false, secretData, incoming ? "c2s" : "s2c", clientNonce, serverNonce);
+            Utils.debug("using %s transport security on connection with %s", SessionCipher.NAME, getName());
+            return true;
+        } catch (Exception e) {
+            Utils.severe(e, "unable to start %s session on connection with %s", SessionCipher.NAME, getName());
+            close();
+            return false;
+        }
+    }
+
+    // peers that don't send a codec list only understand the text encoding
+    private boolean supportsBinaryCodec(TypeMap message) {
+        List<String> codecs = message.getStringList("codecs");
+        return (codecs != null) && codecs.contains(BinaryCodec.NAME);
+    }
+
+    private static List<String> createFeatureList() {
+        List<String> features = new ArrayList<String>();
+        Collections.addAll(features, FEATURES);
+        return features;
+    }
+
+    // peers that don't send a feature list don't have any
+    private static Set<String> getFeatures(TypeMap message) {
+        List<String> features = message.getStringList("features");
+        if (features == null) return Collections.emptySet();
+        return new HashSet<String>(features);
     }
 
     private enum State {
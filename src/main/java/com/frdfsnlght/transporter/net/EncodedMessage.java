@@ -0,0 +1,69 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import com.frdfsnlght.transporter.TypeMap;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A message on its way out, which remembers how it was encoded.
+ * <p>
+ * The same instance can be handed to any number of connections. Each
+ * encoding is made the first time a connection needs it and reused after
+ * that, so a message sent to every server is only encoded once per codec.
+ * The message must not be changed once it's been wrapped.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class EncodedMessage {
+
+    private final TypeMap message;
+    private byte[] binary = null;
+    private String text = null;
+    private byte[] textData = null;
+
+    public EncodedMessage(TypeMap message) {
+        this.message = message;
+    }
+
+    public TypeMap getMessage() {
+        return message;
+    }
+
+    public String getCommand() {
+        return message.getString("command");
+    }
+
+    synchronized byte[] getBinary() {
+        if (binary == null)
+            binary = BinaryCodec.encode(message);
+        return binary;
+    }
+
+    synchronized String getText() {
+        if (text == null)
+            text = message.encode();
+        return text;
+    }
+
+    synchronized byte[] getTextData() throws UnsupportedEncodingException {
+        if (textData == null)
+            textData = getText().getBytes("UTF-8");
+        return textData;
+    }
+
+}
@@ -16,6 +16,7 @@
 package com.frdfsnlght.transporter.net;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -24,19 +25,26 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.Formatter;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import com.frdfsnlght.transporter.Config;
@@ -57,6 +65,9 @@ import com.frdfsnlght.transporter.Utils;
  */
 public final class Network {
 
+    // how often connected servers are checked for keep alives
+    private static final int KEEPALIVE_CHECK_INTERVAL = 1000;
+
     private static final Set<String> OPTIONS = new HashSet<String>();
     private static final Set<String> RESTART_OPTIONS = new HashSet<String>();
     private static final Options options;
@@ -73,12 +84,17 @@ public final class Network {
         OPTIONS.add("key");
         OPTIONS.add("suppressConnectionAttempts");
         OPTIONS.add("bungeeServer");
+        OPTIONS.add("secureTransport");
+        OPTIONS.add("selectorThreads");
+        OPTIONS.add("decodeThreads");
 
         RESTART_OPTIONS.add("readBufferSize");
         RESTART_OPTIONS.add("selectInterval");
         RESTART_OPTIONS.add("clusterName");
         RESTART_OPTIONS.add("listenAddress");
         RESTART_OPTIONS.add("key");
+        RESTART_OPTIONS.add("selectorThreads");
+        RESTART_OPTIONS.add("decodeThreads");
 
         options = new Options(Network.class, OPTIONS, "trp.network", new OptionsListener() {
             @Override
@@ -184,13 +200,18 @@ public final class Network {
     private static ThreadState state = ThreadState.STOPPED;
     private static InetSocketAddress listenAddress = null;
     private static String key;
-    private static int selectInterval;
+    private static volatile int selectInterval;
+    private static int selectorThreadCount;
+    private static int decodeThreadCount;
     private static int readBufferSize;
     private static Selector selector = null;
     private static final Set<Pattern> banned = new HashSet<Pattern>();
-    private static final Map<SocketChannel,Connection> channels = new HashMap<SocketChannel,Connection>();
+    private static final Map<SocketChannel,Connection> channels = new ConcurrentHashMap<SocketChannel,Connection>();
     private static final Set<Connection> opening = new HashSet<Connection>();
     private static final Set<Connection> closing = new HashSet<Connection>();
+    private static SelectorThread[] selectorThreads = null;
+    private static int nextSelectorThread = 0;
+    private static volatile ExecutorService decoders = null;
 
     // called from main thread
     public static void start(Context ctx) {
@@ -248,8 +269,11 @@ public final class Network {
             ctx.warn("listenAddress: %s", e.getMessage());
         }
         key = getKey();
+        Servers.keysChanged();
         selectInterval = getSelectInterval();
         readBufferSize = getReadBufferSize();
+        selectorThreadCount = getSelectorThreads();
+        decodeThreadCount = getDecodeThreads();
 
         banned.clear();
         List<String> addresses = Config.getStringList("network.bannedAddresses");
@@ -286,6 +310,26 @@ public final class Network {
         Config.setPropertyDirect("network.readBufferSize", i);
     }
 
+    public static int getSelectorThreads() {
+        return Config.getIntDirect("network.selectorThreads", 2);
+    }
+
+    public static void setSelectorThreads(int i) {
+        if (i < 1)
+            throw new IllegalArgumentException("selectorThreads must be at least 1");
+        Config.setPropertyDirect("network.selectorThreads", i);
+    }
+
+    public static int getDecodeThreads() {
+        return Config.getIntDirect("network.decodeThreads", 2);
+    }
+
+    public static void setDecodeThreads(int i) {
+        if (i < 1)
+            throw new IllegalArgumentException("decodeThreads must be at least 1");
+        Config.setPropertyDirect("network.decodeThreads", i);
+    }
+
     public static int getSelectInterval() {
         return Config.getIntDirect("network.selectInterval", 30000);
     }
@@ -368,6 +412,14 @@ public final class Network {
         Config.setPropertyDirect("network.key", s);
     }
 
+    public static boolean getSecureTransport() {
+        return Config.getBooleanDirect("network.secureTransport", true);
+    }
+
+    public static void setSecureTransport(boolean b) {
+        Config.setPropertyDirect("network.secureTransport", b);
+    }
+
     public static int getSuppressConnectionAttempts() {
         return Config.getIntDirect("network.suppressConnectionAttempts", -1);
     }
@@ -394,6 +446,28 @@ public final class Network {
         return key;
     }
 
+    static int getCachedReadBufferSize() {
+        return readBufferSize;
+    }
+
+    static int getCachedSelectInterval() {
+        return selectInterval;
+    }
+
+    // The hash a connecting server sends to identify itself.
+    public static String hashKeys(String connectingKey, String acceptingKey) {
+        try {
+            MessageDigest dig = MessageDigest.getInstance("SHA1");
+            Formatter f = new Formatter();
+            byte[] out = dig.digest((connectingKey + ":" + acceptingKey).getBytes("UTF-8"));
+            for (Byte b : out) f.format("%02x", b);
+            return f.toString();
+        } catch (NoSuchAlgorithmException e) {
+            Utils.severe(e, "unable to hash keys");
+        } catch (UnsupportedEncodingException e) {}
+        return null;
+    }
+
     public static boolean isStopped() {
         return (state == ThreadState.STOP) || (state == ThreadState.STOPPING) || (state == ThreadState.STOPPED);
     }
@@ -461,9 +535,19 @@ public final class Network {
             serverChannel.socket().bind(listenAddress);
             serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
+            // start the threads that do the actual work
+            selectorThreads = new SelectorThread[selectorThreadCount];
+            for (int i = 0; i < selectorThreads.length; i++) {
+                selectorThreads[i] = new SelectorThread("Transporter network selector " + (i + 1));
+                selectorThreads[i].start();
+            }
+            decoders = Executors.newFixedThreadPool(decodeThreadCount);
+
             Utils.info("network manager listening on %s:%d", listenAddress.getAddress().getHostAddress(), listenAddress.getPort());
             state = ThreadState.RUNNING;
 
+            long lastKeepAlive = 0;
+
             // processing
             while (true) {
                 if (state == ThreadState.STOP) {
@@ -503,9 +587,9 @@ public final class Network {
                                     InetSocketAddress address = makeInetSocketAddress(conn.getConnectAddress(), "localhost", Global.DEFAULT_PLUGIN_PORT, false);
                                     channel.connect(address);
                                 } catch (Exception e) {}
-                                channel.register(selector, SelectionKey.OP_CONNECT);
                                 channels.put(channel, conn);
                                 conn.onOpening(channel);
+                                assignSelectorThread(conn).register(conn, SelectionKey.OP_CONNECT);
                             } catch (IOException e) {
                                 conn.onException(e);
                             }
@@ -515,21 +599,22 @@ public final class Network {
                 }
 
                 // Tell connected servers to do keep alives
-                for (Server server : Servers.getAll()) {
-                    server.sendKeepAlive();
-                    server.checkKeepAlive();
+                long now = System.currentTimeMillis();
+                if ((now - lastKeepAlive) >= KEEPALIVE_CHECK_INTERVAL) {
+                    lastKeepAlive = now;
+                    for (Server server : Servers.getAll()) {
+                        server.sendKeepAlive();
+                        server.checkKeepAlive();
+                    }
                 }
 
-                if (selector.select(selectInterval) > 0) {
+                if (selector.select(Math.min(selectInterval, KEEPALIVE_CHECK_INTERVAL)) > 0) {
                     Iterator keys = selector.selectedKeys().iterator();
                     while (keys.hasNext()) {
                         SelectionKey selKey = (SelectionKey)keys.next();
                         keys.remove();
                         if (! selKey.isValid()) continue;
                         if (selKey.isAcceptable()) onAccept(selKey);
-                        else if (selKey.isConnectable()) onConnect(selKey);
-                        else if (selKey.isReadable()) onRead(selKey);
-                        else if (selKey.isWritable()) onWrite(selKey);
                     }
                 }
 
@@ -540,6 +625,15 @@ public final class Network {
         } catch (IOException ioe) {
             Utils.severe(ioe, "network manager IOException: " + ioe.getMessage());
         }
+
+        if (selectorThreads != null)
+            for (SelectorThread thread : selectorThreads)
+                if (thread != null) thread.stop();
+        selectorThreads = null;
+        if (decoders != null)
+            decoders.shutdown();
+        decoders = null;
+
         state = ThreadState.STOPPED;
 
         if (selector != null)
@@ -553,12 +647,20 @@ public final class Network {
 
     }
 
-    // called from selection thread
+    // connections are spread evenly over the selector threads
+    private static SelectorThread assignSelectorThread(Connection conn) {
+        SelectorThread thread = selectorThreads[(nextSelectorThread++ & 0x7fffffff) % selectorThreads.length];
+        conn.setSelectorThread(thread);
+        return thread;
+    }
+
+    // can be called from any thread
     private static void kill(Connection conn) {
         Utils.debug("kill %s", conn);
         SocketChannel channel = conn.getChannel();
         if (channel != null) {
-            SelectionKey selKey = channel.keyFor(selector);
+            SelectorThread thread = conn.getSelectorThread();
+            SelectionKey selKey = (thread == null) ? null : channel.keyFor(thread.getSelector());
             if (selKey != null)
                 selKey.cancel();
             try {
@@ -573,11 +675,15 @@ public final class Network {
             opening.remove(conn);
         }
         conn.onKilled();
+        // let the network thread notice we're done
+        if (state == ThreadState.STOPPING)
+            selector.wakeup();
     }
 
     private static void onAccept(SelectionKey key) throws IOException {
         ServerSocketChannel serverChannel = (ServerSocketChannel)key.channel();
         SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
         channel.configureBlocking(false);
 
         Socket socket = channel.socket();
@@ -599,11 +705,12 @@ public final class Network {
 
         Connection conn = new Connection(channel);
         channels.put(channel, conn);
-        channel.register(selector, SelectionKey.OP_READ);
+        assignSelectorThread(conn).register(conn, SelectionKey.OP_READ);
         conn.onAccepted();
     }
 
-    private static void onConnect(SelectionKey key) {
+    // called from a selector thread
+    static void onConnect(SelectionKey key) {
         SocketChannel channel = (SocketChannel)key.channel();
         Connection conn = channels.get(channel);
         if (conn == null) {
@@ -625,7 +732,8 @@ public final class Network {
         conn.onOpened();
     }
 
-    private static void onRead(SelectionKey key) {
+    // called from a selector thread
+    static void onRead(SelectionKey key) {
         SocketChannel channel = (SocketChannel)key.channel();
         Connection conn = channels.get(channel);
         if (conn == null) {
@@ -636,9 +744,9 @@ public final class Network {
             return;
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
         int numRead = 0;
         while (true) {
+            ByteBuffer buffer = conn.getReadBuffer();
             try {
                 numRead = channel.read(buffer);
             } catch (IOException e) {
@@ -647,9 +755,10 @@ public final class Network {
             }
             Utils.debug("read %d from %s", numRead, conn);
             if (numRead <= 0) break;
-            conn.onReadData(Arrays.copyOfRange(buffer.array(), 0, numRead));
-            if (numRead < readBufferSize) break;
-            buffer.clear();
+            boolean full = ! buffer.hasRemaining();
+            // stop when the decoders are behind, reading resumes when they catch up
+            if (! conn.onReadData()) return;
+            if (! full) break;
         }
         if (numRead == -1) {
             kill(conn);
@@ -657,7 +766,8 @@ public final class Network {
         }
     }
 
-    private static void onWrite(SelectionKey key) {
+    // called from a selector thread
+    static void onWrite(SelectionKey key, ByteBuffer[] writeBuffers) {
         SocketChannel channel = (SocketChannel)key.channel();
         Connection conn = channels.get(channel);
         if (conn == null) {
@@ -668,26 +778,25 @@ public final class Network {
             return;
         }
 
-        ByteBuffer buffer;
-        byte[] data;
-        int numWrote;
+        long numWrote;
         while (true) {
-            data = conn.onGetWriteData();
-            if (data == null) break;
-            buffer = ByteBuffer.wrap(data);
+            int count = conn.onGetWriteData(writeBuffers);
+            if (count == 0) break;
             try {
-                numWrote = channel.write(buffer);
+                numWrote = channel.write(writeBuffers, 0, count);
             } catch (IOException e) {
                 conn.onException(e);
                 return;
             }
             Utils.debug("wrote %d to %s", numWrote, conn);
-            if (numWrote == data.length) continue;
-            conn.onPutWriteData(Arrays.copyOfRange(data, numWrote, data.length - 1));
-            break;
+            boolean partial = writeBuffers[count - 1].hasRemaining();
+            conn.onWroteData();
+            Arrays.fill(writeBuffers, 0, count, null);
+            // the socket buffer is full
+            if (partial) break;
         }
         if (! conn.onHasWriteData()) {
-            key.interestOps(SelectionKey.OP_READ);
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
             synchronized (closing) {
                 if (closing.contains(conn)) {
                     kill(conn);
@@ -699,6 +808,23 @@ public final class Network {
         }
     }
 
+    // called from a selector thread, returns false if the decoders are shut down
+    static boolean decode(final Connection conn) {
+        ExecutorService executor = decoders;
+        if (executor == null) return false;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    conn.onDecode();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
     // can be called from any thread
     public static void open(Connection conn) {
         synchronized (opening) {
@@ -714,29 +840,37 @@ public final class Network {
             closing.add(conn);
         }
         wantWrite(conn);
+        if (selector != null)
+            selector.wakeup();
     }
 
     // can be called from any thread
     public static void wantWrite(Connection conn) {
+        setInterest(conn, SelectionKey.OP_WRITE, true);
+    }
+
+    // can be called from any thread
+    static void wantRead(Connection conn, boolean read) {
+        setInterest(conn, SelectionKey.OP_READ, read);
+    }
+
+    private static void setInterest(Connection conn, int op, boolean on) {
         if (conn == null) return;
-        if (conn.getChannel() == null) return;
-        SelectionKey selKey = conn.getChannel().keyFor(selector);
+        SocketChannel channel = conn.getChannel();
+        SelectorThread thread = conn.getSelectorThread();
+        if ((channel == null) || (thread == null)) return;
+        SelectionKey selKey = channel.keyFor(thread.getSelector());
         if ((selKey == null) || (! selKey.isValid())) return;
-        selKey.interestOps(selKey.interestOps() | SelectionKey.OP_WRITE);
-
-        /*
         try {
-            Utils.debug("wantWrite to %s: %s %s %s %s", conn,
-                conn.getChannel().isOpen(),
-                conn.getChannel().isConnected(),
-                conn.getChannel().socket().isClosed(),
-                conn.getChannel().socket().isConnected());
-        } catch (Throwable t) {
-            Utils.debug("wantWrite to %s: got throwable: %s: %s", conn, t.getClass().getName(), t.getMessage());
+            if (on)
+                selKey.interestOps(selKey.interestOps() | op);
+            else
+                selKey.interestOps(selKey.interestOps() & ~op);
+        } catch (CancelledKeyException e) {
+            return;
         }
-        */
-
-        selector.wakeup();
+        if (on)
+            thread.wakeup();
     }
 
 }
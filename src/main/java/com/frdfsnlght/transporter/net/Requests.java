@@ -0,0 +1,121 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import com.frdfsnlght.transporter.TypeMap;
+import com.frdfsnlght.transporter.Utils;
+import com.frdfsnlght.transporter.api.Callback;
+import com.frdfsnlght.transporter.api.RemoteException;
+
+/**
+ * Keeps track of the requests sent to another server that are still waiting
+ * for their result.
+ * <p>
+ * Any number of requests can be outstanding at once and their results can
+ * come back in any order. Every request has a deadline, and a request that
+ * isn't answered, or whose server goes away, fails instead
+ * of waiting forever. Callbacks are always called on the main thread and
+ * exactly once.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class Requests {
+
+    // 100ms ticks, a full turn of the wheel is a little under a minute
+    private static final WheelTimer timer = new WheelTimer("Transporter request timer", 100, 512);
+
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private final ConcurrentMap<Long,Pending> pending = new ConcurrentHashMap<Long,Pending>();
+
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Registers a callback for a new request.
+     * @param cb the callback to call with the result
+     * @param timeout how long to wait for the result, in milliseconds
+     * @return the id to send with the request
+     */
+    public long add(Callback<TypeMap> cb, long timeout) {
+        final long rid = nextRequestId.getAndIncrement();
+        Pending p = new Pending(cb);
+        pending.put(rid, p);
+        p.timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (fail(rid, "timeout"))
+                    Utils.debug("request %s timed out", rid);
+            }
+        }, timeout);
+        return rid;
+    }
+
+    /**
+     * Removes a request that has its result.
+     * @return the callback for the request, or null if the request already
+     * timed out or failed, or never existed
+     */
+    public Callback<TypeMap> remove(long rid) {
+        Pending p = pending.remove(rid);
+        if (p == null) return null;
+        p.cancelTimeout();
+        return p.cb;
+    }
+
+    // fails every outstanding request
+    public void failAll(String reason) {
+        for (Iterator<Long> i = pending.keySet().iterator(); i.hasNext(); )
+            fail(i.next(), reason);
+    }
+
+    private boolean fail(long rid, final String reason) {
+        Pending p = pending.remove(rid);
+        if (p == null) return false;
+        p.cancelTimeout();
+        final Callback<TypeMap> cb = p.cb;
+        Utils.fireQueued(new Runnable() {
+            @Override
+            public void run() {
+                cb.onFailure(new RemoteException(reason));
+            }
+        });
+        return true;
+    }
+
+    private static final class Pending {
+
+        private final Callback<TypeMap> cb;
+        private volatile WheelTimer.Timeout timeout;
+
+        private Pending(Callback<TypeMap> cb) {
+            this.cb = cb;
+        }
+
+        // the timeout is set just after the request is added
+        private void cancelTimeout() {
+            WheelTimer.Timeout t = timeout;
+            if (t != null) t.cancel();
+        }
+
+    }
+
+}
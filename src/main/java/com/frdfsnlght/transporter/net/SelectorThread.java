@@ -0,0 +1,134 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import com.frdfsnlght.transporter.Utils;
+
+/**
+ * Does the connecting, reading and writing for a share of the connections.
+ * <p>
+ * Connections are handed to a selector thread once their channel exists and
+ * stay with it until they're closed, so a busy connection only holds up the
+ * other connections on the same thread.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+final class SelectorThread implements Runnable {
+
+    private static final int WRITE_GATHER_SIZE = 64;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final List<Connection> registering = new ArrayList<Connection>();
+    private final List<Integer> registeringOps = new ArrayList<Integer>();
+    private volatile boolean stop = false;
+
+    // queued records are handed to a single gathering write
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[WRITE_GATHER_SIZE];
+
+    SelectorThread(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        stop = true;
+        selector.wakeup();
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {}
+        }
+    }
+
+    // can be called from any thread
+    void register(Connection conn, int ops) {
+        synchronized (registering) {
+            registering.add(conn);
+            registeringOps.add(ops);
+        }
+        selector.wakeup();
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (! stop) {
+                synchronized (registering) {
+                    for (int i = 0; i < registering.size(); i++) {
+                        Connection conn = registering.get(i);
+                        SocketChannel channel = conn.getChannel();
+                        // killed before it was registered
+                        if (channel == null) continue;
+                        int ops = registeringOps.get(i);
+                        if ((ops == SelectionKey.OP_READ) && conn.onHasWriteData())
+                            ops |= SelectionKey.OP_WRITE;
+                        try {
+                            channel.register(selector, ops);
+                        } catch (ClosedChannelException e) {
+                            conn.onException(e);
+                        }
+                    }
+                    registering.clear();
+                    registeringOps.clear();
+                }
+
+                if (selector.select(Network.getCachedSelectInterval()) > 0) {
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey selKey = keys.next();
+                        keys.remove();
+                        if (! selKey.isValid()) continue;
+                        if (selKey.isConnectable()) {
+                            Network.onConnect(selKey);
+                            continue;
+                        }
+                        if (selKey.isReadable()) Network.onRead(selKey);
+                        if (selKey.isValid() && selKey.isWritable()) Network.onWrite(selKey, writeBuffers);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            Utils.severe(ioe, "network selector IOException: " + ioe.getMessage());
+        }
+        try {
+            selector.close();
+        } catch (IOException ioe) {}
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-GCM encryption of whole frames for one direction of one connection.
+ * <p>
+ * The key is derived from the shared secret and the nonces exchanged during
+ * the handshake, so every session gets its own keys. Frames are numbered
+ * implicitly in the order they're sent, and the frame number is used as the
+ * GCM IV, so nothing besides the authentication tag is added to a frame.
+ * A frame that was tampered with, dropped or replayed fails to decrypt.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+public final class SessionCipher {
+
+    public static final String NAME = "aes-gcm";
+    public static final int NONCE_SIZE = 16;
+    public static final int TAG_SIZE = 16;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_SIZE = 16;
+    private static final int IV_SIZE = 12;
+
+    private static final SecureRandom random = new SecureRandom();
+    private static Boolean available = null;
+
+    // checked once, GCM is only provided by Java 7 and later
+    public static synchronized boolean isAvailable() {
+        if (available == null) {
+            try {
+                javax.crypto.Cipher.getInstance(TRANSFORMATION);
+                new GCMParameterSpec(TAG_SIZE * 8, new byte[IV_SIZE]);
+                available = true;
+            } catch (Throwable t) {
+                available = false;
+            }
+        }
+        return available;
+    }
+
+    public static byte[] createNonce() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    private final javax.crypto.Cipher cipher;
+    private final SecretKeySpec key;
+    private final int mode;
+    private final byte[] iv = new byte[IV_SIZE];
+    private long frameNumber = 0;
+
+    /**
+     * Creates a cipher for one direction of a session.
+     * @param encrypt true to encrypt, false to decrypt
+     * @param secret the shared secret both sides know
+     * @param direction distinguishes the two directions of a session
+     * @param clientNonce the nonce sent by the connecting side
+     * @param serverNonce the nonce sent by the accepting side
+     */
+    public SessionCipher(boolean encrypt, byte[] secret, String direction, byte[] clientNonce, byte[] serverNonce) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        try {
+            mac.update(direction.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {}
+        mac.update(clientNonce);
+        mac.update(serverNonce);
+        byte[] keyData = mac.doFinal();
+        key = new SecretKeySpec(keyData, 0, KEY_SIZE, "AES");
+        mode = encrypt ? javax.crypto.Cipher.ENCRYPT_MODE : javax.crypto.Cipher.DECRYPT_MODE;
+        cipher = javax.crypto.Cipher.getInstance(TRANSFORMATION);
+    }
+
+    public int getOutputSize(int length) {
+        return length + TAG_SIZE;
+    }
+
+    /**
+     * Encrypts or decrypts the next frame.
+     * @return the number of bytes written to the output array
+     */
+    public int doFinal(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws GeneralSecurityException {
+        long n = frameNumber++;
+        for (int i = IV_SIZE - 1; i >= IV_SIZE - 8; i--) {
+            iv[i] = (byte)n;
+            n >>>= 8;
+        }
+        cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, iv));
+        return cipher.doFinal(input, inputOffset, length, output, outputOffset);
+    }
+
+}
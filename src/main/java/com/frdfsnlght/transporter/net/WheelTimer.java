@@ -0,0 +1,140 @@
+/*
+ * Copyright 2026 agent <agent@local>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.frdfsnlght.transporter.Utils;
+
+/**
+ * A hashed wheel timer for deadlines that are usually cancelled before they
+ * expire, like request timeouts.
+ * <p>
+ * Scheduling and cancelling are cheap and never block. Deadlines are only
+ * as precise as the tick. The thread goes away when there's nothing
+ * scheduled and comes back when something is.
+ * </p>
+ *
+ * @author agent <agent@local>
+ */
+final class WheelTimer implements Runnable {
+
+    private final String name;
+    private final long tickNanos;
+    private final List<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger scheduled = new AtomicInteger();
+    private boolean running = false;
+
+    // only used by the timer thread
+    private long startTime;
+    private long tick;
+
+    // wheelSize must be a power of 2
+    @SuppressWarnings("unchecked")
+    WheelTimer(String name, long tickMillis, int wheelSize) {
+        this.name = name;
+        tickNanos = tickMillis * 1000000L;
+        wheel = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++)
+            wheel[i] = new ArrayList<Timeout>();
+        mask = wheelSize - 1;
+    }
+
+    // can be called from any thread
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + (delayMillis * 1000000L));
+        scheduled.incrementAndGet();
+        added.add(timeout);
+        synchronized (this) {
+            if (! running) {
+                running = true;
+                Thread thread = new Thread(this, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        return timeout;
+    }
+
+    @Override
+    public void run() {
+        startTime = System.nanoTime();
+        tick = 0;
+        while (true) {
+            long sleep = (startTime + ((tick + 1) * tickNanos) - System.nanoTime()) / 1000000L;
+            if (sleep > 0)
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ie) {}
+
+            Timeout timeout;
+            while ((timeout = added.poll()) != null) {
+                long ticks = Math.max((timeout.deadline - startTime) / tickNanos, tick);
+                timeout.rounds = (ticks - tick) / wheel.length;
+                wheel[(int)(ticks & mask)].add(timeout);
+            }
+
+            for (Iterator<Timeout> i = wheel[(int)(tick & mask)].iterator(); i.hasNext(); ) {
+                timeout = i.next();
+                if ((! timeout.cancelled) && (timeout.rounds > 0)) {
+                    timeout.rounds--;
+                    continue;
+                }
+                i.remove();
+                scheduled.decrementAndGet();
+                if (timeout.cancelled) continue;
+                try {
+                    timeout.task.run();
+                } catch (Throwable t) {
+                    Utils.severe(t, "timer task threw %s: %s", t.getClass().getName(), t.getMessage());
+                }
+            }
+            tick++;
+
+            synchronized (this) {
+                if (scheduled.get() == 0) {
+                    running = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+    }
+
+}
@@ -75,21 +75,15 @@ public class GateMap {
         v.setBounds(new Point(-10, -10, -10), new Point(10, 10, 10));
         System.out.println("Volume: " + v);
 
-        Point s = new Point(0, 0, 0);
-        System.out.println("Split @ " + s + ":");
-        Volume[] vols = v.split(s);
-        for (int i = 0; i < vols.length; i++)
-            System.out.println(" i=" + i + ": " + vols[i]);
+        System.out.println("contains (0,0,0): " + v.contains(0, 0, 0));
+        System.out.println("contains (11,0,0): " + v.contains(11, 0, 0));
 
         v = new Volume(null);
         for (int i = 0; i < 10; i++)
             v.addPoint(new Point(i, i, i));
         System.out.println("Volume: " + v);
-        s = new Point(5, 5, 5);
-        System.out.println("Split @ " + s + ":");
-        vols = v.split(s);
-        for (int i = 0; i < vols.length; i++)
-            System.out.println(" i=" + i + ": " + vols[i]);
+        System.out.println("contains (5,5,5): " + v.contains(5, 5, 5));
+        System.out.println("contains (5,5,4): " + v.contains(5, 5, 4));
 
     }
 
@@ -109,7 +103,7 @@ public class GateMap {
         }
         System.out.println("Old gate map has " + ogm.size() + " locations");
         System.out.println("New gate map has " + gm.size() + " volumes");
-        System.out.println("New gate map has " + gm.nodeCount() + " nodes");
+        System.out.println("New gate map has " + gm.chunkCount() + " chunks");
 
         int numTests = 100000;
         int foundCount = 0;
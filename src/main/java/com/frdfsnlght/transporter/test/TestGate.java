@@ -53,6 +53,9 @@ public final class TestGate extends LocalGateImpl {
     @Override
     public Location getSpawnLocation(Location fromLoc, BlockFace fromDirection) { return null; }
 
+    @Override
+    public long[] getSpawnChunkKeys() { return new long[0]; }
+
     @Override
     public void rebuild() {}
 